@@ -0,0 +1,64 @@
+package com.ugcs.mavlink.bench;
+
+import com.ugcs.mavlink.MavlinkMessageBuilder;
+import com.ugcs.mavlink.MavlinkMessageFactory;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * MAVLink 1.0 descriptor supporting the {@link BenchMessage} only.
+ */
+final class BenchDescriptor implements ProtocolDescriptor {
+	public String getMavlinkVersion() {
+		return "1.0";
+	}
+	
+	public int getMavlinkStx() {
+		return 0xfe;
+	}
+	
+	public boolean isCrcExtraByte() {
+		return true;
+	}
+	
+	public boolean isFieldsReordering() {
+		return true;
+	}
+	
+	public boolean isLittleEndian() {
+		return true;
+	}
+	
+	public boolean isExpandedSystemId() {
+		return false;
+	}
+	
+	public boolean isMavlink2() {
+		return false;
+	}
+	
+	public int getMaxMessageType() {
+		return BenchMessage.MESSAGE_TYPE;
+	}
+	
+	public boolean isSupported(int messageType) {
+		return messageType == BenchMessage.MESSAGE_TYPE;
+	}
+	
+	public int getMessageLength(int messageType) {
+		return isSupported(messageType) ? BenchMessage.MESSAGE_LENGTH : 0;
+	}
+	
+	public int getMessageCrcExtraByte(int messageType) {
+		return isSupported(messageType) ? BenchMessage.CRC_EXTRA_BYTE : 0;
+	}
+	
+	public MavlinkMessageBuilder newMessageBuilder(int messageType) {
+		if (!isSupported(messageType))
+			throw new IllegalArgumentException("Unsupported message type");
+		return BenchMessage.FACTORY.newMessageBuilder();
+	}
+	
+	public MavlinkMessageFactory getMessageFactory(int messageType) {
+		return isSupported(messageType) ? BenchMessage.FACTORY : null;
+	}
+}
@@ -0,0 +1,126 @@
+package com.ugcs.mavlink.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.ugcs.mavlink.CodedByteArray;
+import com.ugcs.mavlink.MavlinkMessage;
+import com.ugcs.mavlink.MavlinkMessageBuilder;
+import com.ugcs.mavlink.MavlinkMessageFactory;
+
+/**
+ * GLOBAL_POSITION_INT message of MAVLink 1.0, written by hand the way
+ * the generated messages are, so the benchmarks don't depend on
+ * the generated dialect sources.
+ */
+final class BenchMessage implements MavlinkMessage {
+	static final int MESSAGE_TYPE = 33;
+	static final int MESSAGE_LENGTH = 28;
+	static final int CRC_EXTRA_BYTE = 104;
+	
+	static final MavlinkMessageFactory FACTORY = new Factory();
+	
+	private long timeBootMs;
+	private int lat;
+	private int lon;
+	private int alt;
+	private int relativeAlt;
+	private short vx;
+	private short vy;
+	private short vz;
+	private int hdg;
+	
+	private BenchMessage() {
+	}
+	
+	BenchMessage(long timeBootMs, int lat, int lon, int alt) {
+		this.timeBootMs = timeBootMs;
+		this.lat = lat;
+		this.lon = lon;
+		this.alt = alt;
+	}
+	
+	public int getMavlinkMessageType() {
+		return MESSAGE_TYPE;
+	}
+	
+	public long getTimeBootMs() {
+		return timeBootMs;
+	}
+	
+	public int getLat() {
+		return lat;
+	}
+	
+	public int getLon() {
+		return lon;
+	}
+	
+	public int getAlt() {
+		return alt;
+	}
+	
+	public void writeTo(OutputStream out) throws IOException {
+		byte[] b = new byte[MESSAGE_LENGTH];
+		writeTo(b, 0);
+		out.write(b);
+	}
+	
+	public void writeTo(byte[] b, int off) throws IOException {
+		CodedByteArray.writeUnsignedInt32(b, off, timeBootMs, true);
+		CodedByteArray.writeInt32(b, off + 4, lat, true);
+		CodedByteArray.writeInt32(b, off + 8, lon, true);
+		CodedByteArray.writeInt32(b, off + 12, alt, true);
+		CodedByteArray.writeInt32(b, off + 16, relativeAlt, true);
+		CodedByteArray.writeInt16(b, off + 20, vx, true);
+		CodedByteArray.writeInt16(b, off + 22, vy, true);
+		CodedByteArray.writeInt16(b, off + 24, vz, true);
+		CodedByteArray.writeUnsignedInt16(b, off + 26, hdg, true);
+	}
+	
+	private static void readFields(BenchMessage target, byte[] b, int off) {
+		target.timeBootMs = CodedByteArray.readUnsignedInt32(b, off, true);
+		target.lat = CodedByteArray.readInt32(b, off + 4, true);
+		target.lon = CodedByteArray.readInt32(b, off + 8, true);
+		target.alt = CodedByteArray.readInt32(b, off + 12, true);
+		target.relativeAlt = CodedByteArray.readInt32(b, off + 16, true);
+		target.vx = CodedByteArray.readInt16(b, off + 20, true);
+		target.vy = CodedByteArray.readInt16(b, off + 22, true);
+		target.vz = CodedByteArray.readInt16(b, off + 24, true);
+		target.hdg = CodedByteArray.readUnsignedInt16(b, off + 26, true);
+	}
+	
+	private static class Factory implements MavlinkMessageFactory {
+		public int getMavlinkMessageType() {
+			return MESSAGE_TYPE;
+		}
+		
+		/**
+		 * Builders are not used by the benchmarks.
+		 */
+		public MavlinkMessageBuilder newMessageBuilder() {
+			throw new UnsupportedOperationException();
+		}
+		
+		public MavlinkMessage newMessage() {
+			return new BenchMessage();
+		}
+		
+		public MavlinkMessage readFrom(byte[] b, int off) {
+			BenchMessage message = new BenchMessage();
+			readInto(message, b, off);
+			return message;
+		}
+		
+		public void readInto(MavlinkMessage message, byte[] b, int off) {
+			if (!(message instanceof BenchMessage))
+				throw new IllegalArgumentException("message");
+			if (b == null)
+				throw new IllegalArgumentException("b");
+			if (off < 0 || off + MESSAGE_LENGTH > b.length)
+				throw new IndexOutOfBoundsException("off");
+			
+			readFields((BenchMessage) message, b, off);
+		}
+	}
+}
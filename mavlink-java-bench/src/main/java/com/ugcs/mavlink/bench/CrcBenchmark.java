@@ -0,0 +1,104 @@
+package com.ugcs.mavlink.bench;
+
+import java.util.Random;
+
+import com.ugcs.mavlink.MavlinkCrc;
+
+/**
+ * Compares the table-driven {@link MavlinkCrc#compute(byte[], int, int, int)}
+ * with the bitwise byte-at-a-time checksum it replaced.
+ * <p>
+ * Arguments are the checksummed lengths (header without the start sign,
+ * and payload); the defaults are HEARTBEAT, GLOBAL_POSITION_INT and the
+ * max MAVLink 1.0 frame.
+ */
+public class CrcBenchmark {
+	private static final int[] DEFAULT_LENGTHS = {14, 33, 260};
+	// distinct frames checksummed in turn
+	private static final int FRAMES = 1024;
+	private static final int WARMUP_ROUNDS = 10;
+	private static final int ROUNDS = 20;
+	private static final long ROUND_BYTES = 32L << 20;
+	// crc extra byte of the GLOBAL_POSITION_INT message
+	private static final int CRC_EXTRA = 104;
+	
+	public static void main(String[] args) {
+		int[] lengths = DEFAULT_LENGTHS;
+		if (args.length > 0) {
+			lengths = new int[args.length];
+			for (int i = 0; i < args.length; ++i)
+				lengths[i] = Integer.parseInt(args[i]);
+		}
+		
+		Checksum bitwise = new Checksum() {
+			int compute(byte[] b) {
+				return computeBitwise(b, 0, b.length, CRC_EXTRA);
+			}
+		};
+		Checksum tables = new Checksum() {
+			int compute(byte[] b) {
+				return MavlinkCrc.compute(b, 0, b.length, CRC_EXTRA);
+			}
+		};
+		Random random = new Random(1);
+		for (int length : lengths) {
+			byte[][] frames = new byte[FRAMES][length];
+			for (byte[] frame : frames)
+				random.nextBytes(frame);
+			for (byte[] frame : frames) {
+				if (bitwise.compute(frame) != tables.compute(frame))
+					throw new IllegalStateException("Checksum mismatch, length " + length);
+			}
+			
+			int iterations = (int) Math.max(1, ROUND_BYTES / length / FRAMES);
+			measure(bitwise, frames, iterations, WARMUP_ROUNDS);
+			double bitwiseNanos = measure(bitwise, frames, iterations, ROUNDS);
+			measure(tables, frames, iterations, WARMUP_ROUNDS);
+			double tablesNanos = measure(tables, frames, iterations, ROUNDS);
+			System.out.println(String.format("length %d: bitwise %.1f ns, tables %.1f ns, speedup %.1fx",
+					length, bitwiseNanos, tablesNanos, bitwiseNanos / tablesNanos));
+		}
+	}
+	
+	/**
+	 * Returns the best time of a checksum computation over the rounds, ns.
+	 */
+	private static double measure(Checksum checksum, byte[][] frames, int iterations, int rounds) {
+		double best = Double.MAX_VALUE;
+		int sink = 0;
+		for (int round = 0; round < rounds; ++round) {
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; ++i) {
+				for (byte[] frame : frames)
+					sink ^= checksum.compute(frame);
+			}
+			long elapsed = System.nanoTime() - start;
+			best = Math.min(best, (double) elapsed / iterations / frames.length);
+		}
+		// checksums are consumed, so the loop is not eliminated
+		if (sink == Integer.MIN_VALUE)
+			System.out.println();
+		return best;
+	}
+	
+	/**
+	 * Bitwise checksum, as computed by MavlinkCrc before the lookup tables.
+	 */
+	private static int computeBitwise(byte[] b, int off, int len, int crcExtra) {
+		int checksum = 0xffff;
+		int last = off + len;
+		for (int i = off; i < last; ++i)
+			checksum = append(checksum, b[i] & 0xff);
+		return append(checksum, crcExtra);
+	}
+	
+	private static int append(int checksum, int value) {
+		int tmp = (value & 0xff) ^ (checksum & 0xff);
+		tmp = (tmp ^ tmp << 4) & 0xff;
+		return (checksum >>> 8 & 0xffff) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >>> 4);
+	}
+	
+	private static abstract class Checksum {
+		abstract int compute(byte[] b);
+	}
+}
@@ -0,0 +1,136 @@
+package com.ugcs.mavlink.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ugcs.mavlink.MavlinkEncoder;
+import com.ugcs.mavlink.MavlinkLinkGroup;
+import com.ugcs.mavlink.MavlinkPacket;
+import com.ugcs.mavlink.MavlinkPacketHandler;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * Measures decoding throughput of the {@link MavlinkLinkGroup} by the
+ * number of shards: 1, 2, 4... up to the number of processors
+ * (by default), so its scaling across the cores is seen.
+ * <p>
+ * Every link receives the same stream of GLOBAL_POSITION_INT frames,
+ * split to the fixed length chunks (frames span the chunk boundaries).
+ * Chunks are submitted by a single thread, interleaved by links.
+ * <p>
+ * Arguments: [links [chunks per link [max shards]]].
+ */
+public class LinkGroupBenchmark {
+	private static final int DEFAULT_LINKS = 2000;
+	private static final int DEFAULT_CHUNKS_PER_LINK = 64;
+	private static final int CHUNK_LENGTH = 1024;
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int ROUNDS = 3;
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int links = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINKS;
+		int chunksPerLink = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNKS_PER_LINK;
+		int maxShards = args.length > 2
+				? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+		
+		ProtocolDescriptor protocol = new BenchDescriptor();
+		MavlinkEncoder encoder = new MavlinkEncoder(protocol);
+		int packetsPerLink = chunksPerLink * CHUNK_LENGTH / encoder.getPacketLength(newPacket(0));
+		byte[] stream = newStream(encoder, packetsPerLink);
+		System.out.println(String.format("links %d, chunks per link %d, packets per link %d, processors %d",
+				links, chunksPerLink, packetsPerLink, Runtime.getRuntime().availableProcessors()));
+		
+		for (int i = 0; i < WARMUP_ROUNDS; ++i)
+			run(protocol, maxShards, links, stream, packetsPerLink);
+		double base = 0;
+		for (int shards = 1; shards <= maxShards; shards = nextShardCount(shards, maxShards)) {
+			double rate = 0;
+			for (int i = 0; i < ROUNDS; ++i)
+				rate = Math.max(rate, run(protocol, shards, links, stream, packetsPerLink));
+			if (shards == 1)
+				base = rate;
+			System.out.println(String.format("shards %d: %.2f Mpkt/s, speedup %.2fx",
+					shards, rate / 1e6, rate / base));
+		}
+	}
+	
+	private static int nextShardCount(int shards, int maxShards) {
+		return shards < maxShards && 2 * shards > maxShards ? maxShards : 2 * shards;
+	}
+	
+	/**
+	 * Returns number of the packets decoded per second.
+	 */
+	private static double run(ProtocolDescriptor protocol, int shards, int links,
+			byte[] stream, int packetsPerLink) throws InterruptedException {
+		MavlinkLinkGroup group = new MavlinkLinkGroup(protocol, shards);
+		CountDownLatch done = new CountDownLatch(links);
+		MavlinkLinkGroup.Link[] groupLinks = new MavlinkLinkGroup.Link[links];
+		for (int i = 0; i < links; ++i)
+			groupLinks[i] = group.addLink(i, new CountingHandler(packetsPerLink, done));
+		// chunk buffers are created before the timing
+		int chunksPerLink = (stream.length + CHUNK_LENGTH - 1) / CHUNK_LENGTH;
+		ByteBuffer[][] chunks = new ByteBuffer[chunksPerLink][links];
+		for (int k = 0; k < chunksPerLink; ++k) {
+			int off = k * CHUNK_LENGTH;
+			for (int i = 0; i < links; ++i)
+				chunks[k][i] = ByteBuffer.wrap(stream, off, Math.min(CHUNK_LENGTH, stream.length - off));
+		}
+		group.start();
+		try {
+			long start = System.nanoTime();
+			for (int k = 0; k < chunksPerLink; ++k) {
+				for (int i = 0; i < links; ++i)
+					groupLinks[i].submit(chunks[k][i]);
+			}
+			done.await();
+			long elapsed = System.nanoTime() - start;
+			for (MavlinkLinkGroup.Link link : groupLinks) {
+				if (link.getErrors() != 0)
+					throw new IllegalStateException("Link failed to decode", link.getLastError());
+			}
+			return (double) links * packetsPerLink * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		} finally {
+			group.shutdown();
+			group.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+	
+	private static byte[] newStream(MavlinkEncoder encoder, int packets) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int sequence = 0; sequence < packets; ++sequence)
+			out.write(encoder.encode(newPacket(sequence)));
+		return out.toByteArray();
+	}
+	
+	private static MavlinkPacket newPacket(int sequence) {
+		MavlinkPacket packet = new MavlinkPacket(1, 1,
+				new BenchMessage(sequence * 100L, 570000000 + sequence, 240000000 - sequence, 100000));
+		packet.setSequenceNumber(sequence & 0xff);
+		return packet;
+	}
+	
+	/**
+	 * Counts packets of a link, link handler is called
+	 * by a single shard thread at a time.
+	 */
+	private static class CountingHandler implements MavlinkPacketHandler {
+		private final int expected;
+		private final CountDownLatch done;
+		private int packets;
+		
+		CountingHandler(int expected, CountDownLatch done) {
+			this.expected = expected;
+			this.done = done;
+		}
+		
+		public void handle(MavlinkPacket packet) {
+			if (++packets == expected)
+				done.countDown();
+		}
+	}
+}
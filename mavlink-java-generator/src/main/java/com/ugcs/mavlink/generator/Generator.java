@@ -21,12 +21,14 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
+import com.sun.codemodel.JBlock;
 import com.sun.codemodel.JClass;
 import com.sun.codemodel.JClassAlreadyExistsException;
 import com.sun.codemodel.JCodeModel;
 import com.sun.codemodel.JDefinedClass;
 import com.sun.codemodel.JEnumConstant;
 import com.sun.codemodel.JExpr;
+import com.sun.codemodel.JExpression;
 import com.sun.codemodel.JFieldVar;
 import com.sun.codemodel.JForLoop;
 import com.sun.codemodel.JInvocation;
@@ -37,13 +39,18 @@ import com.sun.codemodel.JPackage;
 import com.sun.codemodel.JSwitch;
 import com.sun.codemodel.JType;
 import com.sun.codemodel.JVar;
+import com.ugcs.mavlink.CharArraySequence;
+import com.ugcs.mavlink.CodedByteArray;
 import com.ugcs.mavlink.CodedInputStream;
 import com.ugcs.mavlink.CodedOutputStream;
 import com.ugcs.mavlink.MavlinkCrc;
 import com.ugcs.mavlink.MavlinkMessage;
 import com.ugcs.mavlink.MavlinkMessageBuilder;
+import com.ugcs.mavlink.MavlinkMessageFactory;
+import com.ugcs.mavlink.MavlinkMessageView;
 import com.ugcs.mavlink.ProtocolDescriptor;
 import com.ugcs.mavlink.xmlschema.Entry;
+import com.ugcs.mavlink.xmlschema.Extensions;
 import com.ugcs.mavlink.xmlschema.Field;
 import com.ugcs.mavlink.xmlschema.Mavlink;
 import com.ugcs.mavlink.xmlschema.Param;
@@ -51,6 +58,10 @@ import com.ugcs.mavlink.xmlschema.Param;
 public class Generator {
 	private static final String MAVLINK_VERSION_0_9 = "0.9";
 	private static final String MAVLINK_VERSION_1_0 = "1.0";
+	private static final String MAVLINK_VERSION_2_0 = "2.0";
+	
+	// max message type of the protocols with a single byte message id
+	private static final int MAX_MESSAGE_TYPE_1_0 = 255;
 
 	/* mavlink configuration */
 	
@@ -60,6 +71,7 @@ public class Generator {
 	private boolean fieldsReordering;
 	private boolean littleEndian;
 	private boolean expandedSystemId;
+	private boolean mavlink2;
 
 	/* generator state */
 	
@@ -110,6 +122,16 @@ public class Generator {
 			this.expandedSystemId = expandedSystemId;
 			return;
 		}
+		if (mavlinkVersion.equals(MAVLINK_VERSION_2_0)) {
+			this.mavlinkVersion = MAVLINK_VERSION_2_0;
+			this.mavlinkStx = 0xfd;
+			this.crcExtraByte = true;
+			this.fieldsReordering = true;
+			this.littleEndian = true;
+			this.expandedSystemId = expandedSystemId;
+			this.mavlink2 = true;
+			return;
+		}
 		throw new IllegalArgumentException("Unsupported Mavlink version: " + mavlinkVersion);
 	}		
 		
@@ -150,8 +172,12 @@ public class Generator {
 		// generate enums and messages
 		for (Map.Entry<String, Set<com.ugcs.mavlink.xmlschema.Enum>> entry : state.mavlinkEnums.entrySet())
 			generateEnum(entry.getKey(), entry.getValue());
-		for (com.ugcs.mavlink.xmlschema.Message message : state.mavlinkMessages.values())
+		for (com.ugcs.mavlink.xmlschema.Message message : state.mavlinkMessages.values()) {
+			// message id doesn't fit single byte of the MAVLink 1 header
+			if (!mavlink2 && message.getId() > MAX_MESSAGE_TYPE_1_0)
+				continue;
 			generateMessage(message);
+		}
 		// generate descriptor
 		generateMavlinkDescriptor();
 	}	
@@ -368,13 +394,29 @@ public class Generator {
 		if (message.getName() == null || message.getName().isEmpty())
 			throw new IllegalArgumentException("Empty message name");
 		
-		List<MavlinkField> fields = new ArrayList<MavlinkField>(message.getField().size());
-		for (Field field : message.getField())
-			fields.add(new MavlinkField(field));
+		// fields following the extensions tag are MAVLink 2 extension fields
+		List<MavlinkField> baseFields = new ArrayList<MavlinkField>();
+		List<MavlinkField> extensionFields = new ArrayList<MavlinkField>();
+		boolean extensions = false;
+		for (Object item : message.getFieldOrExtensions()) {
+			if (item instanceof Extensions) {
+				extensions = true;
+				continue;
+			}
+			if (extensions)
+				extensionFields.add(new MavlinkField((Field) item));
+			else
+				baseFields.add(new MavlinkField((Field) item));
+		}
 		
-		// reordering fields
+		// reordering fields, extension fields are never reordered
 		if (fieldsReordering)
-			Collections.sort(fields, new MavlinkFieldComparator());
+			Collections.sort(baseFields, new MavlinkFieldComparator());
+		
+		List<MavlinkField> fields = new ArrayList<MavlinkField>(baseFields);
+		// extension fields are not transferred by the MAVLink 1
+		if (mavlink2)
+			fields.addAll(extensionFields);
 		
 		/* decl */
 		
@@ -426,7 +468,8 @@ public class Generator {
 		StringBuilder sb = new StringBuilder();
 		sb.append(message.getName());
 		sb.append(" ");
-		for (MavlinkField field : fields) {
+		// extension fields are not included
+		for (MavlinkField field : baseFields) {
 			sb.append(field.getTypeDescriptor().getMavlinkElementType());
 			sb.append(" ");
 			sb.append(field.getField().getName());
@@ -449,6 +492,8 @@ public class Generator {
 		
 		builderBuild(cm, messageClass, builderClass);
 		builderReadFrom(cm, builderClass, fields);
+		builderReadFromArray(cm, builderClass, fields, messageLength);
+		builderClear(cm, builderClass, fields);
 		
 		/* message class */
 		
@@ -456,13 +501,39 @@ public class Generator {
 		messageFieldGetters(cm, messageClass, fields);
 		
 		messageCtor(cm, messageClass, builderClass, fields);
+		messageEmptyCtor(cm, messageClass);
 		messageGetMavlinkMessageType(cm, messageClass, message.getId());
 		messageNewBuilder(cm, messageClass, builderClass);
 		messageToBuilder(cm, messageClass, builderClass, fields);
 		messageWriteTo(cm, messageClass, fields);
-		messageReadFrom(cm, messageClass, builderClass);
+		messageWriteToArray(cm, messageClass, fields, messageLength);
+		messageReadFrom(cm, messageClass, fields);
+		messageReadFromArray(cm, messageClass, fields, messageLength);
 		messageToString(cm, messageClass, fields);
 		
+		/* factory class */
+		
+		JDefinedClass factoryClass = messageClass._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Factory");
+		factoryClass._implements(MavlinkMessageFactory.class);
+		
+		messageGetMavlinkMessageType(cm, factoryClass, message.getId());
+		factoryNewMessageBuilder(cm, factoryClass, builderClass);
+		factoryNewMessage(cm, factoryClass, messageClass);
+		factoryReadFrom(cm, factoryClass, messageClass);
+		factoryReadInto(cm, factoryClass, messageClass, fields, messageLength);
+		messageFactoryField(cm, messageClass, factoryClass);
+		
+		/* view class */
+		
+		JDefinedClass viewClass = pkg._class(JMod.PUBLIC | JMod.FINAL, messageClassName + "View");
+		viewClass._implements(MavlinkMessageView.class);
+		viewClass.javadoc().add("Flyweight view over the wire bytes of the {@link " + messageClassName + "} payload");
+		
+		viewFields(cm, viewClass);
+		viewWrap(cm, viewClass, messageLength);
+		viewFieldGetters(cm, viewClass, fields);
+		messageGetMavlinkMessageType(cm, viewClass, message.getId());
+		
 		// saving class file
 		cm.build(new File(state.sourceDirectoryPath));
 	}
@@ -573,24 +644,140 @@ public class Generator {
 				JExpr._new(cm._ref(CodedInputStream.class)).arg(readFromParam1).arg(JExpr.lit(littleEndian)));
 		infVar.annotate(SuppressWarnings.class).param("value", "resource");
 		// reads
+		readFieldsFromStream(cm, readFromMethod.body(), JExpr._this(), infVar, fields);
+		readFromMethod.body()._return(JExpr._this());
+	}
+	
+	private void builderReadFromArray(JCodeModel cm, JDefinedClass builderClass, List<MavlinkField> fields, int messageLength) {
+		// METHOD: readFrom
+		JMethod readFromMethod = builderClass.method(JMod.PUBLIC, builderClass, "readFrom");
+		JVar readFromParam1 = readFromMethod.param(cm._ref(byte[].class), "b");
+		JVar readFromParam2 = readFromMethod.param(cm.INT, "off");
+		arrayRangeCheck(cm, readFromMethod, readFromParam1, readFromParam2, messageLength);
+		// reads
+		readFieldsFromArray(cm, readFromMethod.body(), JExpr._this(), readFromParam1, readFromParam2, fields);
+		readFromMethod.body()._return(JExpr._this());
+	}
+	
+	private void builderClear(JCodeModel cm, JDefinedClass builderClass, List<MavlinkField> fields) {
+		// METHOD: clear
+		JMethod clearMethod = builderClass.method(JMod.PUBLIC, builderClass, "clear");
+		for (MavlinkField item : fields) {
+			Field field = item.getField();
+			MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
+			String fieldName = JavaNames.toFieldName(field.getName());
+			Class<?> type = typeDescriptor.getType();
+			
+			if (type.isArray()) {
+				Class<?> componentType = type.getComponentType();
+				JExpression zero = zeroLiteral(componentType);
+				// no int to byte, short or char conversion of the method arguments
+				if (componentType == byte.class || componentType == short.class || componentType == char.class)
+					zero = JExpr.cast(cm._ref(componentType), zero);
+				clearMethod.body().add(cm.ref(Arrays.class).staticInvoke("fill")
+						.arg(JExpr.refthis(fieldName))
+						.arg(zero));
+			} else {
+				clearMethod.body().assign(JExpr.refthis(fieldName), zeroLiteral(type));
+			}
+		}
+		clearMethod.body()._return(JExpr._this());
+	}
+	
+	private static JExpression zeroLiteral(Class<?> type) {
+		if (type == long.class)
+			return JExpr.lit(0L);
+		if (type == float.class)
+			return JExpr.lit(0F);
+		if (type == double.class)
+			return JExpr.lit(0D);
+		return JExpr.lit(0);
+	}
+	
+	/**
+	 * Generates reads of the wire fields from the coded stream to the fields of the target object.
+	 */
+	private void readFieldsFromStream(JCodeModel cm, JBlock body, JExpression target, 
+			JVar infVar, List<MavlinkField> fields) {
 		for (MavlinkField item : fields) {
 			Field field = item.getField();
 			MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
 			String fieldName = JavaNames.toFieldName(field.getName());
 			
 			if (typeDescriptor.getType().isArray()) {
-				JForLoop loop = readFromMethod.body()._for();
+				JForLoop loop = body._for();
 				JVar indexVar = loop.init(cm.INT, "i", JExpr.lit(0));
 				loop.test(JOp.lt(indexVar, JExpr.lit(typeDescriptor.getArrayLength())));
 				loop.update(JOp.incr(indexVar));
 				JInvocation readInv = JExpr.invoke(infVar, getReadMethodName(typeDescriptor.getMavlinkElementType()));
-				loop.body().assign(JExpr.component(JExpr.refthis(fieldName), indexVar), readInv);
+				loop.body().assign(JExpr.component(JExpr.ref(target, fieldName), indexVar), readInv);
 			} else {
 				JInvocation readInv = JExpr.invoke(infVar, getReadMethodName(typeDescriptor.getMavlinkElementType()));
-				readFromMethod.body().assign(JExpr.refthis(fieldName), readInv);
+				body.assign(JExpr.ref(target, fieldName), readInv);
 			}
 		}
-		readFromMethod.body()._return(JExpr._this());
+	}
+	
+	/**
+	 * Generates reads of the wire fields from the array to the fields of the target object.
+	 */
+	private void readFieldsFromArray(JCodeModel cm, JBlock body, JExpression target, 
+			JVar arrayVar, JVar offsetVar, List<MavlinkField> fields) {
+		JClass codedByteArrayClass = cm.ref(CodedByteArray.class);
+		int fieldOffset = 0;
+		for (MavlinkField item : fields) {
+			Field field = item.getField();
+			MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
+			String fieldName = JavaNames.toFieldName(field.getName());
+			String readMethodName = getReadMethodName(typeDescriptor.getMavlinkElementType());
+			
+			if (typeDescriptor.getType().equals(byte[].class)) {
+				// int8_t arrays are copied as is
+				JInvocation arrayCopyInv = cm.ref(System.class).staticInvoke("arraycopy");
+				arrayCopyInv.arg(arrayVar);
+				arrayCopyInv.arg(offsetVar.plus(JExpr.lit(fieldOffset)));
+				arrayCopyInv.arg(JExpr.ref(target, fieldName));
+				arrayCopyInv.arg(JExpr.lit(0));
+				arrayCopyInv.arg(JExpr.lit(typeDescriptor.getArrayLength()));
+				body.add(arrayCopyInv);
+			} else if (typeDescriptor.getType().isArray()) {
+				JForLoop loop = body._for();
+				JVar indexVar = loop.init(cm.INT, "i", JExpr.lit(0));
+				loop.test(JOp.lt(indexVar, JExpr.lit(typeDescriptor.getArrayLength())));
+				loop.update(JOp.incr(indexVar));
+				JInvocation readInv = codedByteArrayClass.staticInvoke(readMethodName);
+				readInv.arg(arrayVar);
+				readInv.arg(offsetVar
+						.plus(JExpr.lit(fieldOffset))
+						.plus(indexVar.mul(JExpr.lit(typeDescriptor.getLength()))));
+				if (typeDescriptor.getLength() > 1)
+					readInv.arg(JExpr.lit(littleEndian));
+				loop.body().assign(JExpr.component(JExpr.ref(target, fieldName), indexVar), readInv);
+			} else {
+				JInvocation readInv = codedByteArrayClass.staticInvoke(readMethodName);
+				readInv.arg(arrayVar);
+				readInv.arg(offsetVar.plus(JExpr.lit(fieldOffset)));
+				if (typeDescriptor.getLength() > 1)
+					readInv.arg(JExpr.lit(littleEndian));
+				body.assign(JExpr.ref(target, fieldName), readInv);
+			}
+			fieldOffset += typeDescriptor.getWireLength();
+		}
+	}
+	
+	private void arrayRangeCheck(JCodeModel cm, JMethod method, JVar arrayParam, JVar offsetParam, int length) {
+		// null-check
+		method.body()._if(JOp.eq(arrayParam, JExpr._null()))
+			._then()
+			._throw(JExpr._new(cm._ref(IllegalArgumentException.class))
+					.arg(JExpr.lit(arrayParam.name())));
+		// range-check
+		method.body()
+			._if(JOp.lt(offsetParam, JExpr.lit(0))
+					.cor(JOp.gt(offsetParam.plus(JExpr.lit(length)), JExpr.ref(arrayParam, "length"))))
+			._then()
+			._throw(JExpr._new(cm._ref(IndexOutOfBoundsException.class))
+					.arg(JExpr.lit(offsetParam.name())));
 	}
 	
 	/* message class */
@@ -637,6 +824,7 @@ public class Generator {
 				getMethod.body()._return(copyVar);
 				for(Serializable comment : field.getContent())
 					getMethod.javadoc().add(wrapToLines(comment.toString()));
+				messageArrayAccessors(cm, messageClass, item);
 				// METHOD: getString
 				if (typeDescriptor.getType().equals(char[].class)) {
 					String getStringMethodName = JavaNames.toFieldName(getMethodName + "_string");
@@ -661,6 +849,66 @@ public class Generator {
 		}
 	}
 	
+	/**
+	 * Generates array field accessors that neither allocate nor copy defensively.
+	 */
+	private void messageArrayAccessors(JCodeModel cm, JDefinedClass messageClass, MavlinkField item) {
+		Field field = item.getField();
+		MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
+		String fieldName = JavaNames.toFieldName(field.getName());
+		Class<?> componentType = typeDescriptor.getType().getComponentType();
+		int arrayLength = typeDescriptor.getArrayLength();
+		
+		// METHOD: getByIndex
+		JMethod getByIndexMethod = messageClass.method(JMod.PUBLIC, cm._ref(componentType), 
+				JavaNames.toFieldName("get_" + field.getName()));
+		JVar getByIndexParam1 = getByIndexMethod.param(cm.INT, "index");
+		// range-check
+		getByIndexMethod.body()
+			._if(JOp.lt(getByIndexParam1, JExpr.lit(0))
+					.cor(JOp.gte(getByIndexParam1, JExpr.lit(arrayLength))))
+			._then()
+			._throw(JExpr._new(cm._ref(IndexOutOfBoundsException.class))
+					.arg(JExpr.lit(getByIndexParam1.name())));
+		getByIndexMethod.body()._return(JExpr.component(JExpr.refthis(fieldName), getByIndexParam1));
+		
+		// METHOD: getLength
+		JMethod getLengthMethod = messageClass.method(JMod.PUBLIC, cm.INT, 
+				JavaNames.toFieldName("get_" + field.getName() + "_length"));
+		getLengthMethod.body()._return(JExpr.lit(arrayLength));
+		
+		// METHOD: copyTo
+		JMethod copyToMethod = messageClass.method(JMod.PUBLIC, cm.VOID, 
+				JavaNames.toFieldName("copy_" + field.getName() + "_to"));
+		JVar copyToParam1 = copyToMethod.param(cm._ref(typeDescriptor.getType()), "dst");
+		JVar copyToParam2 = copyToMethod.param(cm.INT, "off");
+		arrayRangeCheck(cm, copyToMethod, copyToParam1, copyToParam2, arrayLength);
+		copyToMethod.body().add(cm.ref(System.class).staticInvoke("arraycopy")
+				.arg(JExpr.refthis(fieldName))
+				.arg(JExpr.lit(0))
+				.arg(copyToParam1)
+				.arg(copyToParam2)
+				.arg(JExpr.lit(arrayLength)));
+		
+		if (typeDescriptor.getType().equals(char[].class)) {
+			// FIELD: sequence, created on demand
+			String sequenceFieldName = JavaNames.toFieldName(field.getName() + "_sequence");
+			JFieldVar sequenceField = messageClass.field(JMod.PRIVATE, CharArraySequence.class, sequenceFieldName);
+			
+			// METHOD: getCharSequence
+			JMethod getSequenceMethod = messageClass.method(JMod.PUBLIC, CharSequence.class, 
+					JavaNames.toFieldName("get_" + field.getName() + "_char_sequence"));
+			getSequenceMethod.javadoc().add("Returns read-only view of the field chars up to the first zero char");
+			JVar sequenceVar = getSequenceMethod.body().decl(cm._ref(CharArraySequence.class), "sequence", 
+					JExpr.refthis(sequenceField.name()));
+			// view is immutable, so the race on its creation is benign
+			JBlock createBlock = getSequenceMethod.body()._if(JOp.eq(sequenceVar, JExpr._null()))._then();
+			createBlock.assign(sequenceVar, JExpr._new(cm._ref(CharArraySequence.class)).arg(JExpr.refthis(fieldName)));
+			createBlock.assign(JExpr.refthis(sequenceField.name()), sequenceVar);
+			getSequenceMethod.body()._return(sequenceVar);
+		}
+	}
+	
 	private void messageCtor(JCodeModel cm, JDefinedClass messageClass, JDefinedClass builderClass, List<MavlinkField> fields) {
 		// METHOD: ctor
 		JMethod ctor = messageClass.constructor(JMod.PRIVATE);
@@ -690,6 +938,11 @@ public class Generator {
 		}
 	}
 
+	private void messageEmptyCtor(JCodeModel cm, JDefinedClass messageClass) {
+		// METHOD: ctor, message with default field values
+		messageClass.constructor(JMod.PRIVATE);
+	}
+	
 	private void messageGetMavlinkMessageType(JCodeModel cm, JDefinedClass messageClass, int messageType) {
 		if (messageType < 0)
 			throw new IllegalArgumentException("Illegal Mavlink message type: " + messageType);
@@ -765,7 +1018,58 @@ public class Generator {
 		}
 	}
 	
-	private void messageReadFrom(JCodeModel cm, JDefinedClass messageClass, JDefinedClass builderClass) {
+	private void messageWriteToArray(JCodeModel cm, JDefinedClass messageClass, List<MavlinkField> fields, int messageLength) {
+		// METHOD: writeTo
+		JMethod writeToMethod = messageClass.method(JMod.PUBLIC, cm.VOID, "writeTo");
+		writeToMethod._throws(IOException.class);
+		JVar writeToParam1 = writeToMethod.param(cm._ref(byte[].class), "b");
+		JVar writeToParam2 = writeToMethod.param(cm.INT, "off");
+		arrayRangeCheck(cm, writeToMethod, writeToParam1, writeToParam2, messageLength);
+		// writes
+		JClass codedByteArrayClass = cm.ref(CodedByteArray.class);
+		int fieldOffset = 0;
+		for (MavlinkField item : fields) {
+			Field field = item.getField();
+			MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
+			String fieldName = JavaNames.toFieldName(field.getName());
+			String writeMethodName = getWriteMethodName(typeDescriptor.getMavlinkElementType());
+			
+			if (typeDescriptor.getType().equals(byte[].class)) {
+				// int8_t arrays are copied as is
+				JInvocation arrayCopyInv = cm.ref(System.class).staticInvoke("arraycopy");
+				arrayCopyInv.arg(JExpr.refthis(fieldName));
+				arrayCopyInv.arg(JExpr.lit(0));
+				arrayCopyInv.arg(writeToParam1);
+				arrayCopyInv.arg(writeToParam2.plus(JExpr.lit(fieldOffset)));
+				arrayCopyInv.arg(JExpr.lit(typeDescriptor.getArrayLength()));
+				writeToMethod.body().add(arrayCopyInv);
+			} else if (typeDescriptor.getType().isArray()) {
+				JForLoop loop = writeToMethod.body()._for();
+				JVar indexVar = loop.init(cm.INT, "i", JExpr.lit(0));
+				loop.test(JOp.lt(indexVar, JExpr.lit(typeDescriptor.getArrayLength())));
+				loop.update(JOp.incr(indexVar));
+				JInvocation writeInv = loop.body().staticInvoke(codedByteArrayClass, writeMethodName);
+				writeInv.arg(writeToParam1);
+				writeInv.arg(writeToParam2
+						.plus(JExpr.lit(fieldOffset))
+						.plus(indexVar.mul(JExpr.lit(typeDescriptor.getLength()))));
+				writeInv.arg(JExpr.component(JExpr.refthis(fieldName), indexVar));
+				if (typeDescriptor.getLength() > 1)
+					writeInv.arg(JExpr.lit(littleEndian));
+			} else {
+				JInvocation writeInv = writeToMethod.body().staticInvoke(codedByteArrayClass, writeMethodName);
+				writeInv.arg(writeToParam1);
+				writeInv.arg(writeToParam2.plus(JExpr.lit(fieldOffset)));
+				writeInv.arg(JExpr.refthis(fieldName));
+				if (typeDescriptor.getLength() > 1)
+					writeInv.arg(JExpr.lit(littleEndian));
+			}
+			fieldOffset += typeDescriptor.getWireLength();
+		}
+	}
+	
+	private void messageReadFrom(JCodeModel cm, JDefinedClass messageClass, List<MavlinkField> fields) {
+		// METHOD: readFrom
 		JMethod readFromMethod = messageClass.method(JMod.PUBLIC | JMod.STATIC, messageClass, "readFrom");
 		readFromMethod._throws(IOException.class);
 		JVar readFromParam1 = readFromMethod.param(InputStream.class, "in");
@@ -774,10 +1078,34 @@ public class Generator {
 			._then()
 			._throw(JExpr._new(cm._ref(IllegalArgumentException.class))
 					.arg(JExpr.lit(readFromParam1.name())));
-		readFromMethod.body()._return(JExpr.invoke(
-				JExpr.invoke(JExpr._new(builderClass), "readFrom").arg(readFromParam1), "build"));
+		// inf
+		JVar infVar = readFromMethod.body().decl(cm._ref(CodedInputStream.class), "inf", 
+				JExpr._new(cm._ref(CodedInputStream.class)).arg(readFromParam1).arg(JExpr.lit(littleEndian)));
+		infVar.annotate(SuppressWarnings.class).param("value", "resource");
+		// fields are read directly to the message, without the builder
+		JVar messageVar = readFromMethod.body().decl(messageClass, "message", JExpr._new(messageClass));
+		readFieldsFromStream(cm, readFromMethod.body(), messageVar, infVar, fields);
+		readFromMethod.body()._return(messageVar);
 	}
-
+	
+	private void messageReadFromArray(JCodeModel cm, JDefinedClass messageClass, List<MavlinkField> fields, int messageLength) {
+		// METHOD: readFrom
+		JMethod readFromMethod = messageClass.method(JMod.PUBLIC | JMod.STATIC, messageClass, "readFrom");
+		JVar readFromParam1 = readFromMethod.param(cm._ref(byte[].class), "b");
+		JVar readFromParam2 = readFromMethod.param(cm.INT, "off");
+		arrayRangeCheck(cm, readFromMethod, readFromParam1, readFromParam2, messageLength);
+		// fields are read directly to the message, without the builder
+		JVar messageVar = readFromMethod.body().decl(messageClass, "message", JExpr._new(messageClass));
+		readFieldsFromArray(cm, readFromMethod.body(), messageVar, readFromParam1, readFromParam2, fields);
+		readFromMethod.body()._return(messageVar);
+	}
+	
+	private void messageFactoryField(JCodeModel cm, JDefinedClass messageClass, JDefinedClass factoryClass) {
+		// FIELD: FACTORY
+		messageClass.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, MavlinkMessageFactory.class, "FACTORY", 
+				JExpr._new(factoryClass));
+	}
+	
 	private void messageToString(JCodeModel cm, JDefinedClass messageClass, List<MavlinkField> fields) {
 		// METHOD: toString
 		JMethod toStringMethod = messageClass.method(JMod.PUBLIC, cm._ref(String.class), "toString");
@@ -818,6 +1146,140 @@ public class Generator {
 		toStringMethod.body()._return(JExpr.invoke(sbVar, "toString"));
 	}
 
+	/* view class */
+	
+	private void viewFields(JCodeModel cm, JDefinedClass viewClass) {
+		// FIELD: buffer
+		viewClass.field(JMod.PRIVATE, cm._ref(byte[].class), "buffer");
+		// FIELD: offset
+		viewClass.field(JMod.PRIVATE, cm.INT, "offset");
+	}
+	
+	private void viewWrap(JCodeModel cm, JDefinedClass viewClass, int messageLength) {
+		// METHOD: wrap
+		JMethod wrapMethod = viewClass.method(JMod.PUBLIC, viewClass, "wrap");
+		JVar wrapParam1 = wrapMethod.param(cm._ref(byte[].class), "buffer");
+		JVar wrapParam2 = wrapMethod.param(cm.INT, "offset");
+		// null-check
+		wrapMethod.body()._if(JOp.eq(wrapParam1, JExpr._null()))
+			._then()
+			._throw(JExpr._new(cm._ref(IllegalArgumentException.class))
+					.arg(JExpr.lit(wrapParam1.name())));
+		// range-check
+		wrapMethod.body()
+			._if(JOp.lt(wrapParam2, JExpr.lit(0))
+					.cor(JOp.gt(wrapParam2.plus(JExpr.lit(messageLength)), JExpr.ref(wrapParam1, "length"))))
+			._then()
+			._throw(JExpr._new(cm._ref(IndexOutOfBoundsException.class))
+					.arg(JExpr.lit(wrapParam2.name())));
+		// body
+		wrapMethod.body().assign(JExpr.refthis("buffer"), wrapParam1);
+		wrapMethod.body().assign(JExpr.refthis("offset"), wrapParam2);
+		wrapMethod.body()._return(JExpr._this());
+	}
+	
+	private void viewFieldGetters(JCodeModel cm, JDefinedClass viewClass, List<MavlinkField> fields) {
+		JClass codedByteArrayClass = cm.ref(CodedByteArray.class);
+		// fields are placed on the wire in the (possibly reordered) list order
+		int fieldOffset = 0;
+		for (MavlinkField item : fields) {
+			Field field = item.getField();
+			MavlinkTypeDescriptor typeDescriptor = item.getTypeDescriptor();
+			String elementType = typeDescriptor.getMavlinkElementType();
+			String getMethodName = JavaNames.toFieldName("get_" + field.getName());
+			
+			if (typeDescriptor.getType().isArray()) {
+				Class<?> componentType = typeDescriptor.getType().getComponentType();
+				
+				// METHOD: getByIndex
+				JMethod getByIndexMethod = viewClass.method(JMod.PUBLIC, cm._ref(componentType), getMethodName);
+				JVar getByIndexParam1 = getByIndexMethod.param(cm.INT, "index");
+				// range-check
+				getByIndexMethod.body()
+					._if(JOp.lt(getByIndexParam1, JExpr.lit(0))
+							.cor(JOp.gte(getByIndexParam1, JExpr.lit(typeDescriptor.getArrayLength()))))
+					._then()
+					._throw(JExpr._new(cm._ref(IndexOutOfBoundsException.class))
+							.arg(JExpr.lit(getByIndexParam1.name())));
+				// body
+				JInvocation readInv = codedByteArrayClass.staticInvoke(getReadMethodName(elementType));
+				readInv.arg(JExpr.refthis("buffer"));
+				readInv.arg(JExpr.refthis("offset")
+						.plus(JExpr.lit(fieldOffset))
+						.plus(getByIndexParam1.mul(JExpr.lit(typeDescriptor.getLength()))));
+				if (typeDescriptor.getLength() > 1)
+					readInv.arg(JExpr.lit(littleEndian));
+				getByIndexMethod.body()._return(readInv);
+				for(Serializable comment : field.getContent())
+					getByIndexMethod.javadoc().add(wrapToLines(comment.toString()));
+				
+				// METHOD: getLength
+				String getLengthMethodName = JavaNames.toFieldName("get_" + field.getName() + "_length");
+				viewClass.method(JMod.PUBLIC, cm.INT, getLengthMethodName)
+					.body()._return(JExpr.lit(typeDescriptor.getArrayLength()));
+			} else {
+				// METHOD: get
+				JMethod getMethod = viewClass.method(JMod.PUBLIC, cm._ref(typeDescriptor.getType()), getMethodName);
+				JInvocation readInv = codedByteArrayClass.staticInvoke(getReadMethodName(elementType));
+				readInv.arg(JExpr.refthis("buffer"));
+				readInv.arg(JExpr.refthis("offset").plus(JExpr.lit(fieldOffset)));
+				if (typeDescriptor.getLength() > 1)
+					readInv.arg(JExpr.lit(littleEndian));
+				getMethod.body()._return(readInv);
+				for(Serializable comment : field.getContent())
+					getMethod.javadoc().add(wrapToLines(comment.toString()));
+			}
+			fieldOffset += typeDescriptor.getWireLength();
+		}
+	}
+	
+	/* factory class */
+	
+	private void factoryNewMessageBuilder(JCodeModel cm, JDefinedClass factoryClass, JDefinedClass builderClass) {
+		// METHOD: newMessageBuilder
+		JMethod newMessageBuilderMethod = factoryClass.method(JMod.PUBLIC, MavlinkMessageBuilder.class, "newMessageBuilder");
+		newMessageBuilderMethod.body()._return(JExpr._new(builderClass));
+	}
+	
+	private void factoryNewMessage(JCodeModel cm, JDefinedClass factoryClass, JDefinedClass messageClass) {
+		// METHOD: newMessage
+		JMethod newMessageMethod = factoryClass.method(JMod.PUBLIC, MavlinkMessage.class, "newMessage");
+		newMessageMethod.body()._return(JExpr._new(messageClass));
+	}
+	
+	private void factoryReadFrom(JCodeModel cm, JDefinedClass factoryClass, JDefinedClass messageClass) {
+		// METHOD: readFrom
+		JMethod readFromMethod = factoryClass.method(JMod.PUBLIC, MavlinkMessage.class, "readFrom");
+		JVar readFromParam1 = readFromMethod.param(cm._ref(byte[].class), "b");
+		JVar readFromParam2 = readFromMethod.param(cm.INT, "off");
+		readFromMethod.body()._return(messageClass.staticInvoke("readFrom").arg(readFromParam1).arg(readFromParam2));
+	}
+	
+	private void factoryReadInto(JCodeModel cm, JDefinedClass factoryClass, JDefinedClass messageClass, 
+			List<MavlinkField> fields, int messageLength) {
+		// METHOD: readInto
+		JMethod readIntoMethod = factoryClass.method(JMod.PUBLIC, cm.VOID, "readInto");
+		JVar readIntoParam1 = readIntoMethod.param(MavlinkMessage.class, "message");
+		JVar readIntoParam2 = readIntoMethod.param(cm._ref(byte[].class), "b");
+		JVar readIntoParam3 = readIntoMethod.param(cm.INT, "off");
+		// type-check
+		readIntoMethod.body()._if(readIntoParam1._instanceof(messageClass).not())
+			._then()
+			._throw(JExpr._new(cm._ref(IllegalArgumentException.class))
+					.arg(JExpr.lit(readIntoParam1.name())));
+		arrayRangeCheck(cm, readIntoMethod, readIntoParam2, readIntoParam3, messageLength);
+		// reads
+		JVar targetVar = readIntoMethod.body().decl(messageClass, "target", JExpr.cast(messageClass, readIntoParam1));
+		readFieldsFromArray(cm, readIntoMethod.body(), targetVar, readIntoParam2, readIntoParam3, fields);
+		// char sequences are re-created, as their length is counted on creation
+		for (MavlinkField item : fields) {
+			if (item.getTypeDescriptor().getType().equals(char[].class)) {
+				String sequenceFieldName = JavaNames.toFieldName(item.getField().getName() + "_sequence");
+				readIntoMethod.body().assign(targetVar.ref(sequenceFieldName), JExpr._null());
+			}
+		}
+	}
+	
 	/* descriptor */
 
 	public void generateMavlinkDescriptor() throws JClassAlreadyExistsException, IOException {
@@ -836,22 +1298,38 @@ public class Generator {
 		descriptorFields(cm, descriptorClass);
 		descriptorGetters(cm, descriptorClass);
 		
-		descriptorCtor(cm, descriptorClass);
+		descriptorStaticInit(cm, descriptorClass);
+		descriptorIsSupported(cm, descriptorClass);
 		descriptorGetMessageLength(cm, descriptorClass);
 		descriptorGetMessageCrcExtraByte(cm, descriptorClass);
+		descriptorGetMessageFactory(cm, descriptorClass);
 		descriptorNewMessageBuilder(cm, descriptorClass);
 		
 		// saving class file
 		cm.build(new File(state.sourceDirectoryPath));
 	}
 	
+	private int getMaxMessageType() {
+		int maxMessageType = 0;
+		for (Integer messageType : state.messageClasses.keySet())
+			maxMessageType = Math.max(maxMessageType, messageType);
+		return maxMessageType;
+	}
+	
 	private void descriptorFields(JCodeModel cm, JDefinedClass descriptorClass) {
-		// FIELD: messageLength
-		descriptorClass.field(JMod.PRIVATE | JMod.FINAL, cm._ref(int[].class), "messageLengths", 
-				JExpr.newArray(cm.INT, JExpr.lit(256)));
-		// FIELD: messageCrcExtraBytes
-		descriptorClass.field(JMod.PRIVATE | JMod.FINAL, cm._ref(int[].class), "messageCrcExtraBytes", 
-				JExpr.newArray(cm.INT, JExpr.lit(256)));
+		// tables are shared by all descriptor instances,
+		// table length is at least 256 to cover all single byte message ids
+		int tableLength = Math.max(MAX_MESSAGE_TYPE_1_0, getMaxMessageType()) + 1;
+		
+		// FIELD: MESSAGE_LENGTHS
+		descriptorClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, cm._ref(int[].class), "MESSAGE_LENGTHS", 
+				JExpr.newArray(cm.INT, JExpr.lit(tableLength)));
+		// FIELD: MESSAGE_CRC_EXTRA_BYTES
+		descriptorClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, cm._ref(int[].class), "MESSAGE_CRC_EXTRA_BYTES", 
+				JExpr.newArray(cm.INT, JExpr.lit(tableLength)));
+		// FIELD: MESSAGE_FACTORIES
+		descriptorClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, cm._ref(MavlinkMessageFactory[].class), "MESSAGE_FACTORIES", 
+				JExpr.newArray(cm._ref(MavlinkMessageFactory.class), JExpr.lit(tableLength)));
 	}
 	
 	private void descriptorGetters(JCodeModel cm, JDefinedClass descriptorClass) {
@@ -873,41 +1351,70 @@ public class Generator {
 		// METHOD: isExpandedSystemId
 		descriptorClass.method(JMod.PUBLIC, cm.BOOLEAN, "isExpandedSystemId")
 			.body()._return(JExpr.lit(expandedSystemId));
+		// METHOD: isMavlink2
+		descriptorClass.method(JMod.PUBLIC, cm.BOOLEAN, "isMavlink2")
+			.body()._return(JExpr.lit(mavlink2));
+		// METHOD: getMaxMessageType
+		descriptorClass.method(JMod.PUBLIC, cm.INT, "getMaxMessageType")
+			.body()._return(JExpr.lit(getMaxMessageType()));
 	}
 	
-	private void descriptorCtor(JCodeModel cm, JDefinedClass descriptorClass) {
-		// METHOD: ctor
-		JMethod ctorMethod = descriptorClass.constructor(JMod.PUBLIC);
+	private void descriptorStaticInit(JCodeModel cm, JDefinedClass descriptorClass) {
+		JBlock init = descriptorClass.init();
 		
 		// it seems CodeModel 2.5 doesn't support array initializers
 		// so values are filled by hand
 		for (Map.Entry<Integer, Integer> item : state.messageLengths.entrySet()) {
-			ctorMethod.body().assign(
-					JExpr.component(JExpr.refthis("messageLengths"), JExpr.lit(item.getKey())), 
+			init.assign(
+					JExpr.component(JExpr.ref("MESSAGE_LENGTHS"), JExpr.lit(item.getKey())), 
 					JExpr.lit(item.getValue()));
 		}
 		for (Map.Entry<Integer, Integer> item : state.messageCrcExtraBytes.entrySet()) {
-			ctorMethod.body().assign(
-					JExpr.component(JExpr.refthis("messageCrcExtraBytes"), JExpr.lit(item.getKey())), 
+			init.assign(
+					JExpr.component(JExpr.ref("MESSAGE_CRC_EXTRA_BYTES"), JExpr.lit(item.getKey())), 
 					JExpr.lit(item.getValue()));
 		}
+		for (Map.Entry<Integer, JDefinedClass> item : state.messageClasses.entrySet()) {
+			init.assign(
+					JExpr.component(JExpr.ref("MESSAGE_FACTORIES"), JExpr.lit(item.getKey())), 
+					item.getValue().staticRef("FACTORY"));
+		}
 	}
 	
 	private void descriptorNewMessageBuilder(JCodeModel cm, JDefinedClass descriptorClass) {
 		// METHOD: newMessageBuilder
 		JMethod newMessageBuilderMethod = descriptorClass.method(JMod.PUBLIC, MavlinkMessageBuilder.class, "newMessageBuilder");
 		JVar newMessageBuilderParam1 = newMessageBuilderMethod.param(cm.INT, "messageType");
-		JSwitch switch1 = newMessageBuilderMethod.body()._switch(newMessageBuilderParam1);
-		for (Map.Entry<Integer, JDefinedClass> item : state.messageBuilderClasses.entrySet()) {
-			Integer messageType = item.getKey();
-			JDefinedClass builderClass = item.getValue();
-			
-			switch1._case(JExpr.lit(messageType))
-				.body()._return(JExpr._new(builderClass));
-		}
-		switch1._default().body().
-			_throw(JExpr._new(cm._ref(IllegalArgumentException.class))
+		
+		newMessageBuilderMethod.body()._if(JExpr.invoke("isSupported").arg(newMessageBuilderParam1).not())
+			._then()
+			._throw(JExpr._new(cm._ref(IllegalArgumentException.class))
 				.arg(JExpr.lit("Unsupported message type")));
+		newMessageBuilderMethod.body()._return(JExpr.invoke(
+				JExpr.component(JExpr.ref("MESSAGE_FACTORIES"), newMessageBuilderParam1), "newMessageBuilder"));
+	}
+	
+	private void descriptorGetMessageFactory(JCodeModel cm, JDefinedClass descriptorClass) {
+		// METHOD: getMessageFactory
+		JMethod getMessageFactoryMethod = descriptorClass.method(JMod.PUBLIC, MavlinkMessageFactory.class, "getMessageFactory");
+		JVar getMessageFactoryParam1 = getMessageFactoryMethod.param(cm.INT, "messageType");
+		
+		getMessageFactoryMethod.body()._if(JExpr.invoke("isSupported").arg(getMessageFactoryParam1).not())
+			._then()
+			._return(JExpr._null());
+		getMessageFactoryMethod.body()._return(
+				JExpr.component(JExpr.ref("MESSAGE_FACTORIES"), getMessageFactoryParam1));
+	}
+	
+	private void descriptorIsSupported(JCodeModel cm, JDefinedClass descriptorClass) {
+		// METHOD: isSupported
+		JMethod isSupportedMethod = descriptorClass.method(JMod.PUBLIC, cm.BOOLEAN, "isSupported");
+		JVar isSupportedParam1 = isSupportedMethod.param(cm.INT, "messageType");
+		
+		isSupportedMethod.body()
+			._return(isSupportedParam1.gte(JExpr.lit(0))
+					.cand(isSupportedParam1.lt(JExpr.ref("MESSAGE_FACTORIES").ref("length")))
+					.cand(JOp.ne(JExpr.component(JExpr.ref("MESSAGE_FACTORIES"), isSupportedParam1), JExpr._null())));
 	}
 	
 	private void descriptorGetMessageLength(JCodeModel cm, JDefinedClass descriptorClass) {
@@ -916,7 +1423,7 @@ public class Generator {
 		JVar getMessageLengthParam1 = getMessageLengthMethod.param(cm.INT, "messageType");
 
 		getMessageLengthMethod.body()
-			._return(JExpr.component(JExpr.refthis("messageLengths"), getMessageLengthParam1));
+			._return(JExpr.component(JExpr.ref("MESSAGE_LENGTHS"), getMessageLengthParam1));
 	}
 	
 	private void descriptorGetMessageCrcExtraByte(JCodeModel cm, JDefinedClass descriptorClass) {
@@ -925,7 +1432,7 @@ public class Generator {
 		JVar getMessageCrcExtraByteParam1 = getMessageCrcExtraByte.param(cm.INT, "messageType");
 
 		getMessageCrcExtraByte.body()
-			._return(JExpr.component(JExpr.refthis("messageCrcExtraBytes"), getMessageCrcExtraByteParam1));
+			._return(JExpr.component(JExpr.ref("MESSAGE_CRC_EXTRA_BYTES"), getMessageCrcExtraByteParam1));
 	}
 	
 	private String getWriteMethodName(String mavlinkElemntType) {
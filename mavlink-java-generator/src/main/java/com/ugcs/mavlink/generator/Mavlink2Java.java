@@ -53,7 +53,7 @@ public class Mavlink2Java {
 		System.err.println("-p    package name of the generated Java classes; source files will be");
 		System.err.println("      placed to the extra directories relative to the -d source path");
 		System.err.println("-d    base directory path of the generated source files");
-		System.err.println("-v    MAVLink protocol version (0.9 or 1.0)");
+		System.err.println("-v    MAVLink protocol version (0.9, 1.0 or 2.0)");
 		System.err.println("-e    extended system id flag (UgCS specific option);");
 		System.err.println("path  root MAVLink XML definitions file");
 		System.exit(1);
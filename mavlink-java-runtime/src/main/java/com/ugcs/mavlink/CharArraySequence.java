@@ -0,0 +1,63 @@
+package com.ugcs.mavlink;
+
+/**
+ * Read-only view of the zero-terminated char array field. 
+ * Sequence is backed by the array and doesn't copy it; sequence length
+ * is the number of chars before the first zero char, as counted when
+ * the sequence is created. Arrays overwritten in place (pooled messages)
+ * need a new sequence.
+ */
+public final class CharArraySequence implements CharSequence {
+	private final char[] chars;
+	private final int length;
+	
+	public CharArraySequence(char[] chars) {
+		if (chars == null)
+			throw new IllegalArgumentException("chars");
+		
+		this.chars = chars;
+		int n = 0;
+		while (n < chars.length && chars[n] != 0)
+			n++;
+		this.length = n;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index");
+		
+		return chars[index];
+	}
+	
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end < start || end > length)
+			throw new IndexOutOfBoundsException();
+		
+		return new String(chars, start, end - start);
+	}
+	
+	/**
+	 * Compares sequence chars with the other sequence without allocations.
+	 */
+	public boolean contentEquals(CharSequence other) {
+		if (other == null)
+			return false;
+		
+		if (other.length() != length)
+			return false;
+		for (int i = 0; i < length; ++i) {
+			if (chars[i] != other.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+}
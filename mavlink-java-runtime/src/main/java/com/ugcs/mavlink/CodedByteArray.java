@@ -0,0 +1,152 @@
+package com.ugcs.mavlink;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes primitive MAVLink types directly in the byte arrays,
+ * with the same conventions as the {@link CodedInputStream} 
+ * and {@link CodedOutputStream}.
+ */
+public final class CodedByteArray {
+	private CodedByteArray() {
+	}
+	
+	public static float readFloat(byte[] b, int off, boolean littleEndian) {
+		return Float.intBitsToFloat(readInt32(b, off, littleEndian));
+	}
+	
+	public static double readDouble(byte[] b, int off, boolean littleEndian) {
+		return Double.longBitsToDouble(readInt64(b, off, littleEndian));
+	}
+	
+	public static char readChar(byte[] b, int off) {
+		return (char) (b[off] & 0xff);
+	}
+	
+	public static byte readInt8(byte[] b, int off) {
+		return b[off];
+	}
+	
+	public static int readUnsignedInt8(byte[] b, int off) {
+		return b[off] & 0xff;
+	}
+	
+	public static short readInt16(byte[] b, int off, boolean littleEndian) {
+		int b1 = b[off] & 0xff;
+		int b2 = b[off + 1] & 0xff;
+		
+		return littleEndian ? 
+				(short) ((b2 << 8) | b1) :
+				(short) ((b1 << 8) | b2);
+	}
+	
+	public static int readUnsignedInt16(byte[] b, int off, boolean littleEndian) {
+		return readInt16(b, off, littleEndian) & 0xffff;
+	}
+	
+	public static int readInt32(byte[] b, int off, boolean littleEndian) {
+		int b1 = b[off] & 0xff;
+		int b2 = b[off + 1] & 0xff;
+		int b3 = b[off + 2] & 0xff;
+		int b4 = b[off + 3] & 0xff;
+		
+		return littleEndian ?
+				(b4 << 24) | (b3 << 16) | (b2 << 8) | b1 :
+				(b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+	}
+	
+	public static long readUnsignedInt32(byte[] b, int off, boolean littleEndian) {
+		return readInt32(b, off, littleEndian) & 0xffffffffL;
+	}
+	
+	public static long readInt64(byte[] b, int off, boolean littleEndian) {
+		long i1 = readInt32(b, off, littleEndian) & 0xffffffffL;
+		long i2 = readInt32(b, off + 4, littleEndian) & 0xffffffffL;
+		
+		return littleEndian ?
+				(i2 << 32) | i1 :
+				(i1 << 32) | i2;
+	}
+	
+	public static long readUnsignedInt64(byte[] b, int off, boolean littleEndian) {
+		// for CDC compatibility ulong64_t is stored as a plain java long
+		return readInt64(b, off, littleEndian);
+	}
+	
+	/* writes */
+	
+	private static void checkNarrowingSafety(long value, int n) throws IOException {
+		if ((value >>> n) != 0)
+			throw new IOException("Value can't be narrowed without data loss: " + value);
+	}
+	
+	public static void writeFloat(byte[] b, int off, float value, boolean littleEndian) {
+		writeInt32(b, off, Float.floatToIntBits(value), littleEndian);
+	}
+	
+	public static void writeDouble(byte[] b, int off, double value, boolean littleEndian) {
+		writeInt64(b, off, Double.doubleToLongBits(value), littleEndian);
+	}
+	
+	public static void writeChar(byte[] b, int off, char value) throws IOException {
+		checkNarrowingSafety(value & 0xffff, 8);
+		b[off] = (byte) value;
+	}
+	
+	public static void writeInt8(byte[] b, int off, byte value) {
+		b[off] = value;
+	}
+	
+	public static void writeUnsignedInt8(byte[] b, int off, int value) throws IOException {
+		checkNarrowingSafety(value & 0xffff, 8);
+		b[off] = (byte) value;
+	}
+	
+	public static void writeInt16(byte[] b, int off, short value, boolean littleEndian) {
+		if (littleEndian) {
+			b[off] = (byte) value;
+			b[off + 1] = (byte) (value >>> 8);
+		} else {
+			b[off] = (byte) (value >>> 8);
+			b[off + 1] = (byte) value;
+		}
+	}
+	
+	public static void writeUnsignedInt16(byte[] b, int off, int value, boolean littleEndian) throws IOException {
+		checkNarrowingSafety(value, 16);
+		writeInt16(b, off, (short) value, littleEndian);
+	}
+	
+	public static void writeInt32(byte[] b, int off, int value, boolean littleEndian) {
+		if (littleEndian) {
+			b[off] = (byte) value;
+			b[off + 1] = (byte) (value >>> 8);
+			b[off + 2] = (byte) (value >>> 16);
+			b[off + 3] = (byte) (value >>> 24);
+		} else {
+			b[off] = (byte) (value >>> 24);
+			b[off + 1] = (byte) (value >>> 16);
+			b[off + 2] = (byte) (value >>> 8);
+			b[off + 3] = (byte) value;
+		}
+	}
+	
+	public static void writeUnsignedInt32(byte[] b, int off, long value, boolean littleEndian) throws IOException {
+		checkNarrowingSafety(value, 32);
+		writeInt32(b, off, (int) value, littleEndian);
+	}
+	
+	public static void writeInt64(byte[] b, int off, long value, boolean littleEndian) {
+		if (littleEndian) {
+			writeInt32(b, off, (int) value, true);
+			writeInt32(b, off + 4, (int) (value >>> 32), true);
+		} else {
+			writeInt32(b, off, (int) (value >>> 32), false);
+			writeInt32(b, off + 4, (int) value, false);
+		}
+	}
+	
+	public static void writeUnsignedInt64(byte[] b, int off, long value, boolean littleEndian) {
+		writeInt64(b, off, value, littleEndian);
+	}
+}
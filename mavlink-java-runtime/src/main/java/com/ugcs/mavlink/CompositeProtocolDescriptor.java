@@ -0,0 +1,162 @@
+package com.ugcs.mavlink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocol descriptor that merges message sets of several generated
+ * descriptors (e.g. common, ardupilotmega and vendor dialects) into flat
+ * lookup tables, so the message lookup is a single array access.
+ * <p>
+ * All merged descriptors should share the same framing. Message type
+ * defined by several descriptors should have the same length and crc
+ * extra byte in all of them, such duplicates are decoded by the factory
+ * of the descriptor added first; otherwise descriptors are in conflict
+ * and can't be merged.
+ */
+public class CompositeProtocolDescriptor implements ProtocolDescriptor {
+	private final ProtocolDescriptor framing;
+	private final int maxMessageType;
+	
+	private final int[] messageLengths;
+	private final int[] messageCrcExtraBytes;
+	private final MavlinkMessageFactory[] messageFactories;
+	
+	private CompositeProtocolDescriptor(List<ProtocolDescriptor> protocols) {
+		this.framing = protocols.get(0);
+		int maxMessageType = 0;
+		for (ProtocolDescriptor protocol : protocols)
+			maxMessageType = Math.max(maxMessageType, protocol.getMaxMessageType());
+		this.maxMessageType = maxMessageType;
+		
+		this.messageLengths = new int[maxMessageType + 1];
+		this.messageCrcExtraBytes = new int[maxMessageType + 1];
+		this.messageFactories = new MavlinkMessageFactory[maxMessageType + 1];
+		ProtocolDescriptor[] owners = new ProtocolDescriptor[maxMessageType + 1];
+		for (ProtocolDescriptor protocol : protocols) {
+			for (int i = 0; i <= protocol.getMaxMessageType(); ++i) {
+				if (!protocol.isSupported(i))
+					continue;
+				
+				int messageLength = protocol.getMessageLength(i);
+				int messageCrcExtraByte = protocol.getMessageCrcExtraByte(i);
+				if (messageFactories[i] == null) {
+					messageLengths[i] = messageLength;
+					messageCrcExtraBytes[i] = messageCrcExtraByte;
+					messageFactories[i] = protocol.getMessageFactory(i);
+					owners[i] = protocol;
+				} else if (messageLengths[i] != messageLength
+						|| messageCrcExtraBytes[i] != messageCrcExtraByte) {
+					throw new IllegalArgumentException("Message type " + i
+							+ " conflicts: length " + messageLengths[i] + ", crc extra " + messageCrcExtraBytes[i]
+							+ " (" + owners[i].getClass().getName() + ") and length "
+							+ messageLength + ", crc extra " + messageCrcExtraByte
+							+ " (" + protocol.getClass().getName() + ")");
+				}
+			}
+		}
+	}
+	
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+	
+	public String getMavlinkVersion() {
+		return framing.getMavlinkVersion();
+	}
+	
+	public int getMavlinkStx() {
+		return framing.getMavlinkStx();
+	}
+	
+	public boolean isCrcExtraByte() {
+		return framing.isCrcExtraByte();
+	}
+	
+	public boolean isFieldsReordering() {
+		return framing.isFieldsReordering();
+	}
+	
+	public boolean isLittleEndian() {
+		return framing.isLittleEndian();
+	}
+	
+	public boolean isExpandedSystemId() {
+		return framing.isExpandedSystemId();
+	}
+	
+	public boolean isMavlink2() {
+		return framing.isMavlink2();
+	}
+	
+	public int getMaxMessageType() {
+		return maxMessageType;
+	}
+	
+	public boolean isSupported(int messageType) {
+		return messageType >= 0
+				&& messageType < messageFactories.length
+				&& messageFactories[messageType] != null;
+	}
+	
+	public int getMessageLength(int messageType) {
+		return messageLengths[messageType];
+	}
+	
+	public int getMessageCrcExtraByte(int messageType) {
+		return messageCrcExtraBytes[messageType];
+	}
+	
+	public MavlinkMessageFactory getMessageFactory(int messageType) {
+		if (!isSupported(messageType))
+			return null;
+		return messageFactories[messageType];
+	}
+	
+	public MavlinkMessageBuilder newMessageBuilder(int messageType) {
+		if (!isSupported(messageType))
+			throw new IllegalArgumentException("Unsupported message type");
+		return messageFactories[messageType].newMessageBuilder();
+	}
+	
+	public static class Builder {
+		private final List<ProtocolDescriptor> protocols = new ArrayList<ProtocolDescriptor>();
+		
+		private Builder() {
+		}
+		
+		/**
+		 * Adds descriptor to merge, duplicate message types
+		 * are decoded by the descriptor added first.
+		 */
+		public Builder add(ProtocolDescriptor protocol) {
+			if (protocol == null)
+				throw new IllegalArgumentException("protocol");
+			if (!protocols.isEmpty() && !isSameFraming(protocols.get(0), protocol))
+				throw new IllegalArgumentException("Protocol framing mismatch");
+			
+			protocols.add(protocol);
+			return this;
+		}
+		
+		/**
+		 * @throws IllegalArgumentException if the added descriptors
+		 * define the same message type differently
+		 */
+		public CompositeProtocolDescriptor build() {
+			if (protocols.isEmpty())
+				throw new IllegalStateException("No protocols added");
+			
+			return new CompositeProtocolDescriptor(protocols);
+		}
+		
+		private static boolean isSameFraming(ProtocolDescriptor a, ProtocolDescriptor b) {
+			return a.getMavlinkStx() == b.getMavlinkStx()
+					&& a.isCrcExtraByte() == b.isCrcExtraByte()
+					&& a.isFieldsReordering() == b.isFieldsReordering()
+					&& a.isLittleEndian() == b.isLittleEndian()
+					&& a.isExpandedSystemId() == b.isExpandedSystemId()
+					&& a.isMavlink2() == b.isMavlink2();
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package com.ugcs.mavlink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks packet sequence numbers of every (system id, component id) pair
+ * and counts lost, duplicated and reordered packets.
+ * <p>
+ * Windowed counters cover the last <tt>windowSize / 2</tt> to
+ * <tt>windowSize</tt> expected packets: window consists of two halves,
+ * and the older half is discarded when the newer one is full.
+ * <p>
+ * Monitor is not thread-safe.
+ */
+public class LinkQualityMonitor implements MavlinkPacketHandler {
+	private static final int DEFAULT_WINDOW_SIZE = 256;
+	private static final int INITIAL_CAPACITY = 64;
+	
+	// packet that is behind the last one by up to this distance is
+	// treated as a late or duplicated one, otherwise as a packet ahead
+	private static final int REORDER_DISTANCE = 64;
+	
+	/* counters layout */
+	
+	private static final int RECEIVED = 0;
+	private static final int LOST = 1;
+	private static final int DUPLICATES = 2;
+	private static final int REORDERED = 3;
+	private static final int RESTARTS = 4;
+	
+	private static final int COUNTERS = 5;
+	// totals, current window half, previous window half
+	private static final int TOTAL_OFFSET = 0;
+	private static final int CURRENT_OFFSET = COUNTERS;
+	private static final int PREVIOUS_OFFSET = COUNTERS * 2;
+	private static final int COUNTERS_STRIDE = COUNTERS * 3;
+	
+	// 256-bit bitmap of the received sequence numbers
+	private static final int SEEN_STRIDE = 4;
+	
+	private final int windowSize;
+	
+	/* link table */
+	
+	// open addressing table, key is ((systemId << 8) | componentId) + 1,
+	// zero marks an empty slot
+	private long[] keys;
+	private int[] lastSequenceNumbers;
+	private long[] seen;
+	private long[] counters;
+	private int size;
+	
+	public LinkQualityMonitor() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * @param windowSize number of the expected packets (received or lost)
+	 * per link the windowed counters are calculated for
+	 */
+	public LinkQualityMonitor(int windowSize) {
+		if (windowSize < 2)
+			throw new IllegalArgumentException("windowSize");
+		
+		this.windowSize = windowSize;
+		allocate(INITIAL_CAPACITY);
+	}
+	
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		lastSequenceNumbers = new int[capacity];
+		seen = new long[capacity * SEEN_STRIDE];
+		counters = new long[capacity * COUNTERS_STRIDE];
+	}
+	
+	public int getWindowSize() {
+		return windowSize;
+	}
+	
+	/**
+	 * Returns number of the links tracked.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	public void handle(MavlinkPacket packet) {
+		if (packet == null)
+			throw new IllegalArgumentException("packet");
+		
+		update(packet.getSystemId(), packet.getComponentId(), packet.getSequenceNumber());
+	}
+	
+	/**
+	 * Accounts packet with the specified sequence number received
+	 * from the system component.
+	 */
+	public void update(long systemId, int componentId, int sequenceNumber) {
+		long key = toKey(systemId, componentId);
+		int slot = find(key);
+		int seq = sequenceNumber & 0xff;
+		if (slot < 0) {
+			slot = insert(key);
+			lastSequenceNumbers[slot] = seq;
+			setSeen(slot, seq);
+			count(slot, RECEIVED, 1);
+			return;
+		}
+		
+		int last = lastSequenceNumbers[slot];
+		int delta = (seq - last) & 0xff;
+		if (delta == 0) {
+			count(slot, DUPLICATES, 1);
+		} else if (delta < 256 - REORDER_DISTANCE) {
+			// packet is ahead of the last one, packets in between are lost
+			for (int k = 1; k < delta; ++k)
+				clearSeen(slot, (last + k) & 0xff);
+			setSeen(slot, seq);
+			lastSequenceNumbers[slot] = seq;
+			count(slot, RECEIVED, 1);
+			if (delta > 1)
+				count(slot, LOST, delta - 1);
+		} else if (isSeen(slot, seq)) {
+			count(slot, DUPLICATES, 1);
+		} else {
+			// late packet that was counted as lost
+			setSeen(slot, seq);
+			count(slot, RECEIVED, 1);
+			count(slot, REORDERED, 1);
+			uncountLost(slot);
+		}
+	}
+	
+	private void count(int slot, int counter, int n) {
+		int base = slot * COUNTERS_STRIDE;
+		counters[base + TOTAL_OFFSET + counter] += n;
+		counters[base + CURRENT_OFFSET + counter] += n;
+		
+		// rotating window halves
+		long expected = counters[base + CURRENT_OFFSET + RECEIVED]
+				+ counters[base + CURRENT_OFFSET + LOST];
+		if (expected >= windowSize / 2) {
+			System.arraycopy(counters, base + CURRENT_OFFSET, counters, base + PREVIOUS_OFFSET, COUNTERS);
+			Arrays.fill(counters, base + CURRENT_OFFSET, base + CURRENT_OFFSET + COUNTERS, 0L);
+		}
+	}
+	
+	private void uncountLost(int slot) {
+		int base = slot * COUNTERS_STRIDE;
+		if (counters[base + TOTAL_OFFSET + LOST] > 0)
+			counters[base + TOTAL_OFFSET + LOST]--;
+		// lost packet may be accounted in any of the window halves
+		if (counters[base + CURRENT_OFFSET + LOST] > 0)
+			counters[base + CURRENT_OFFSET + LOST]--;
+		else if (counters[base + PREVIOUS_OFFSET + LOST] > 0)
+			counters[base + PREVIOUS_OFFSET + LOST]--;
+	}
+	
+	/**
+	 * Accounts sequence restart of the system component: sequence
+	 * tracking starts from the specified sequence number.
+	 */
+	public void restart(long systemId, int componentId, int sequenceNumber) {
+		long key = toKey(systemId, componentId);
+		int slot = find(key);
+		if (slot < 0)
+			slot = insert(key);
+		int seq = sequenceNumber & 0xff;
+		Arrays.fill(seen, slot * SEEN_STRIDE, (slot + 1) * SEEN_STRIDE, 0L);
+		lastSequenceNumbers[slot] = seq;
+		setSeen(slot, seq);
+		count(slot, RESTARTS, 1);
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		Arrays.fill(seen, 0L);
+		Arrays.fill(counters, 0L);
+		size = 0;
+	}
+	
+	/* sequence bitmap */
+	
+	private boolean isSeen(int slot, int seq) {
+		return (seen[slot * SEEN_STRIDE + (seq >>> 6)] & (1L << seq)) != 0;
+	}
+	
+	private void setSeen(int slot, int seq) {
+		seen[slot * SEEN_STRIDE + (seq >>> 6)] |= 1L << seq;
+	}
+	
+	private void clearSeen(int slot, int seq) {
+		seen[slot * SEEN_STRIDE + (seq >>> 6)] &= ~(1L << seq);
+	}
+	
+	/* link table */
+	
+	private static long toKey(long systemId, int componentId) {
+		return ((systemId << 8) | (componentId & 0xff)) + 1;
+	}
+	
+	private static int hash(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (true) {
+			long slotKey = keys[i];
+			if (slotKey == key)
+				return i;
+			if (slotKey == 0L)
+				return -1;
+			i = (i + 1) & mask;
+		}
+	}
+	
+	private int insert(long key) {
+		if ((size + 1) * 2 > keys.length)
+			rehash(keys.length * 2);
+		
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != 0L)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		size++;
+		return i;
+	}
+	
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldLastSequenceNumbers = lastSequenceNumbers;
+		long[] oldSeen = seen;
+		long[] oldCounters = counters;
+		
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int k = 0; k < oldKeys.length; ++k) {
+			long key = oldKeys[k];
+			if (key == 0L)
+				continue;
+			int i = hash(key) & mask;
+			while (keys[i] != 0L)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			lastSequenceNumbers[i] = oldLastSequenceNumbers[k];
+			System.arraycopy(oldSeen, k * SEEN_STRIDE, seen, i * SEEN_STRIDE, SEEN_STRIDE);
+			System.arraycopy(oldCounters, k * COUNTERS_STRIDE, counters, i * COUNTERS_STRIDE, COUNTERS_STRIDE);
+		}
+	}
+	
+	/* reports */
+	
+	/**
+	 * Returns link quality snapshot of the system component,
+	 * or null if no packets were received from it.
+	 */
+	public LinkQuality getLinkQuality(long systemId, int componentId) {
+		int slot = find(toKey(systemId, componentId));
+		return slot >= 0 ? newLinkQuality(slot) : null;
+	}
+	
+	public List<LinkQuality> getLinkQualities() {
+		List<LinkQuality> result = new ArrayList<LinkQuality>(size);
+		for (int i = 0; i < keys.length; ++i) {
+			if (keys[i] != 0L)
+				result.add(newLinkQuality(i));
+		}
+		return result;
+	}
+	
+	private LinkQuality newLinkQuality(int slot) {
+		long key = keys[slot] - 1;
+		int base = slot * COUNTERS_STRIDE;
+		
+		LinkQuality quality = new LinkQuality();
+		quality.systemId = key >>> 8;
+		quality.componentId = (int) (key & 0xff);
+		quality.received = counters[base + TOTAL_OFFSET + RECEIVED];
+		quality.lost = counters[base + TOTAL_OFFSET + LOST];
+		quality.duplicates = counters[base + TOTAL_OFFSET + DUPLICATES];
+		quality.reordered = counters[base + TOTAL_OFFSET + REORDERED];
+		quality.restarts = counters[base + TOTAL_OFFSET + RESTARTS];
+		quality.windowReceived = counters[base + CURRENT_OFFSET + RECEIVED]
+				+ counters[base + PREVIOUS_OFFSET + RECEIVED];
+		quality.windowLost = counters[base + CURRENT_OFFSET + LOST]
+				+ counters[base + PREVIOUS_OFFSET + LOST];
+		quality.windowDuplicates = counters[base + CURRENT_OFFSET + DUPLICATES]
+				+ counters[base + PREVIOUS_OFFSET + DUPLICATES];
+		quality.windowReordered = counters[base + CURRENT_OFFSET + REORDERED]
+				+ counters[base + PREVIOUS_OFFSET + REORDERED];
+		return quality;
+	}
+	
+	public static class LinkQuality {
+		private long systemId;
+		private int componentId;
+		
+		private long received;
+		private long lost;
+		private long duplicates;
+		private long reordered;
+		private long restarts;
+		
+		private long windowReceived;
+		private long windowLost;
+		private long windowDuplicates;
+		private long windowReordered;
+		
+		public long getSystemId() {
+			return systemId;
+		}
+		
+		public int getComponentId() {
+			return componentId;
+		}
+		
+		public long getReceived() {
+			return received;
+		}
+		
+		public long getLost() {
+			return lost;
+		}
+		
+		public long getDuplicates() {
+			return duplicates;
+		}
+		
+		public long getReordered() {
+			return reordered;
+		}
+		
+		public long getRestarts() {
+			return restarts;
+		}
+		
+		public long getWindowReceived() {
+			return windowReceived;
+		}
+		
+		public long getWindowLost() {
+			return windowLost;
+		}
+		
+		public long getWindowDuplicates() {
+			return windowDuplicates;
+		}
+		
+		public long getWindowReordered() {
+			return windowReordered;
+		}
+		
+		/**
+		 * Returns percentage of the packets lost within the window.
+		 */
+		public double getWindowLossPercent() {
+			long expected = windowReceived + windowLost;
+			return expected > 0 ? 100.0 * windowLost / expected : 0.0;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("LinkQuality {");
+			sb.append("systemId: ").append(systemId);
+			sb.append(", componentId: ").append(componentId);
+			sb.append(", received: ").append(received);
+			sb.append(", lost: ").append(lost);
+			sb.append(", duplicates: ").append(duplicates);
+			sb.append(", reordered: ").append(reordered);
+			sb.append(", restarts: ").append(restarts);
+			sb.append(", windowLossPercent: ").append(getWindowLossPercent());
+			sb.append("}");
+			return sb.toString();
+		}
+	}
+}
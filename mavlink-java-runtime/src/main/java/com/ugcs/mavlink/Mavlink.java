@@ -3,5 +3,32 @@ package com.ugcs.mavlink;
 public class Mavlink {
 	public static final int MIN_PACKET_LENGTH = 8;
 	public static final int MAX_PACKET_LENGTH = 263;
+	public static final int MAX_PAYLOAD_LENGTH = 255;
 	public static final int MAX_MESSAGE_FIELDS = 64;
+	
+	/* MAVLink 2 */
+	
+	public static final int INCOMPAT_FLAG_SIGNED = 0x01;
+	public static final int SIGNATURE_LENGTH = 13;
+	
+	/**
+	 * Returns packet header length (including stx) for the protocol.
+	 */
+	public static int getHeaderLength(ProtocolDescriptor protocol) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		
+		// expanded system id takes 4 bytes instead of 1
+		int systemIdExtraLength = protocol.isExpandedSystemId() ? 3 : 0;
+		return (protocol.isMavlink2() ? 10 : 6) + systemIdExtraLength;
+	}
+	
+	/**
+	 * Returns max packet length (including stx, checksum
+	 * and signature) for the protocol.
+	 */
+	public static int getMaxPacketLength(ProtocolDescriptor protocol) {
+		return getHeaderLength(protocol) + MAX_PAYLOAD_LENGTH + 2
+				+ (protocol.isMavlink2() ? SIGNATURE_LENGTH : 0);
+	}
 }
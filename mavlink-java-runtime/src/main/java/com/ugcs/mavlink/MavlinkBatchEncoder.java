@@ -0,0 +1,196 @@
+package com.ugcs.mavlink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Encodes packets back to back into a sequence of direct buffer chunks,
+ * so that a batch of packets can be written with a single gathering write.
+ * Batch should be flushed when {@link #isFlushRequired()} reports that
+ * the size or time threshold is reached.
+ */
+public class MavlinkBatchEncoder {
+	private static final int DEFAULT_CHUNK_LENGTH = 16 * 1024;
+	
+	private final MavlinkEncoder encoder;
+	private final int chunkLength;
+	private final int flushSize;
+	private final long flushIntervalNanos;
+	
+	/* batch state */
+	
+	private ByteBuffer[] chunks = new ByteBuffer[4];
+	// end of the encoded data in a chunk
+	private int[] chunkLimits = new int[4];
+	// start of the data not written yet
+	private int[] chunkPositions = new int[4];
+	private int chunkCount;
+	private int flushChunk;
+	
+	private int length;
+	private int packetCount;
+	private long firstPacketNanos;
+	
+	// intermediate buffer for the stream writes, allocated on demand
+	private byte[] streamBuffer;
+	
+	public MavlinkBatchEncoder(ProtocolDescriptor protocol) {
+		this(protocol, DEFAULT_CHUNK_LENGTH, 0L);
+	}
+	
+	/**
+	 * @param flushSize batch length in bytes that requires flush
+	 * @param flushInterval max delay in milliseconds between the first packet
+	 * appended to the batch and the flush, zero disables time threshold
+	 */
+	public MavlinkBatchEncoder(ProtocolDescriptor protocol, int flushSize, long flushInterval) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (flushSize <= 0)
+			throw new IllegalArgumentException("flushSize");
+		if (flushInterval < 0)
+			throw new IllegalArgumentException("flushInterval");
+		
+		this.encoder = new MavlinkEncoder(protocol);
+		this.chunkLength = Math.max(flushSize, Mavlink.MAX_PACKET_LENGTH * 4);
+		this.flushSize = flushSize;
+		this.flushIntervalNanos = flushInterval * 1000000L;
+	}
+	
+	/**
+	 * Returns number of bytes in the batch that were not flushed yet.
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	public int getPacketCount() {
+		return packetCount;
+	}
+	
+	public boolean isEmpty() {
+		return length == 0;
+	}
+	
+	public boolean isFlushRequired() {
+		if (length == 0)
+			return false;
+		if (length >= flushSize)
+			return true;
+		return flushIntervalNanos > 0 && System.nanoTime() - firstPacketNanos >= flushIntervalNanos;
+	}
+	
+	/**
+	 * Appends encoded packet to the end of the batch.
+	 *
+	 * @return number of bytes appended
+	 */
+	public int append(MavlinkPacket packet) throws IOException {
+		int packetLength = encoder.getPacketLength(packet);
+		ByteBuffer chunk = chunkCount > 0 ? chunks[chunkCount - 1] : null;
+		if (chunk == null || chunk.remaining() < packetLength)
+			chunk = nextChunk();
+		
+		int n = encoder.encodeTo(packet, chunk);
+		chunkLimits[chunkCount - 1] = chunk.position();
+		if (packetCount == 0)
+			firstPacketNanos = System.nanoTime();
+		packetCount++;
+		length += n;
+		return n;
+	}
+	
+	private ByteBuffer nextChunk() {
+		if (chunkCount == chunks.length) {
+			int newLength = chunks.length + (chunks.length >> 1);
+			chunks = Arrays.copyOf(chunks, newLength);
+			chunkLimits = Arrays.copyOf(chunkLimits, newLength);
+			chunkPositions = Arrays.copyOf(chunkPositions, newLength);
+		}
+		// chunks are kept allocated between the batches
+		ByteBuffer chunk = chunks[chunkCount];
+		if (chunk == null) {
+			chunk = ByteBuffer.allocateDirect(chunkLength);
+			chunks[chunkCount] = chunk;
+		}
+		chunk.clear();
+		chunkLimits[chunkCount] = 0;
+		chunkPositions[chunkCount] = 0;
+		chunkCount++;
+		return chunk;
+	}
+	
+	/**
+	 * Writes batch to the channel with a single gathering write.
+	 * Non-blocking channel may accept only a part of the batch,
+	 * in that case the rest is written by the next flush calls.
+	 *
+	 * @return number of bytes written
+	 */
+	public long flush(GatheringByteChannel channel) throws IOException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel");
+		if (length == 0)
+			return 0L;
+		
+		// switch chunks to the read mode
+		for (int k = flushChunk; k < chunkCount; ++k) {
+			chunks[k].limit(chunkLimits[k]);
+			chunks[k].position(chunkPositions[k]);
+		}
+		long n = 0L;
+		try {
+			n = channel.write(chunks, flushChunk, chunkCount - flushChunk);
+		} finally {
+			// switch chunks back to the write mode
+			for (int k = flushChunk; k < chunkCount; ++k) {
+				chunkPositions[k] = chunks[k].position();
+				chunks[k].limit(chunks[k].capacity());
+				chunks[k].position(chunkLimits[k]);
+			}
+		}
+		while (flushChunk < chunkCount && chunkPositions[flushChunk] == chunkLimits[flushChunk])
+			flushChunk++;
+		length -= (int) n;
+		if (length == 0)
+			clear();
+		return n;
+	}
+	
+	/**
+	 * Writes batch to the stream and resets the batch.
+	 */
+	public void flush(OutputStream out) throws IOException {
+		if (out == null)
+			throw new IllegalArgumentException("out");
+		if (length == 0)
+			return;
+		
+		if (streamBuffer == null)
+			streamBuffer = new byte[chunkLength];
+		for (int k = flushChunk; k < chunkCount; ++k) {
+			ByteBuffer chunk = chunks[k];
+			int n = chunkLimits[k] - chunkPositions[k];
+			chunk.position(chunkPositions[k]);
+			chunk.get(streamBuffer, 0, n);
+			out.write(streamBuffer, 0, n);
+		}
+		out.flush();
+		clear();
+	}
+	
+	/**
+	 * Discards all packets of the batch.
+	 */
+	public void clear() {
+		for (int k = 0; k < chunkCount; ++k)
+			chunks[k].clear();
+		chunkCount = 0;
+		flushChunk = 0;
+		length = 0;
+		packetCount = 0;
+	}
+}
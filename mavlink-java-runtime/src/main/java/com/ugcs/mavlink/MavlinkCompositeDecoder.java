@@ -0,0 +1,267 @@
+package com.ugcs.mavlink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decoder of the streams in one of several protocols (MAVLink versions
+ * or dialects). Protocol is detected for every frame by the stx and
+ * by the header and checksum validation: candidate protocols are tried
+ * in the order they are specified.
+ * <p>
+ * Once the specified number of consecutive frames are decoded with
+ * the same protocol, the stream is pinned to it and all the following
+ * bytes are passed to the decoder of that protocol directly, as if it
+ * were a single protocol decoder. Use {@link #unpin()} to restart
+ * detection, e.g. when the other vehicle is connected to the port.
+ * <p>
+ * Decoders of the candidate protocols (see {@link #getDecoder(ProtocolDescriptor)})
+ * can be configured individually. Bytes consumed during the detection
+ * are not accounted in the stats of the decoders.
+ */
+public class MavlinkCompositeDecoder {
+	private static final int DEFAULT_PIN_THRESHOLD = 8;
+	
+	private final MavlinkDecoder[] decoders;
+	private final int[] stxs;
+	private final int pinThreshold;
+	
+	/* detection state */
+	
+	// bytes received while detecting the protocol
+	private final byte[] pending;
+	private int pendingLength;
+	
+	private MavlinkDecoder pinnedDecoder;
+	// decoder of the last detected frame
+	private MavlinkDecoder detectedDecoder;
+	private int detectedFrames;
+	
+	public MavlinkCompositeDecoder(ProtocolDescriptor... protocols) {
+		this(DEFAULT_PIN_THRESHOLD, protocols);
+	}
+	
+	/**
+	 * @param pinThreshold number of the consecutive frames of the same protocol
+	 * the stream is pinned after, zero disables pinning
+	 */
+	public MavlinkCompositeDecoder(int pinThreshold, ProtocolDescriptor... protocols) {
+		if (pinThreshold < 0)
+			throw new IllegalArgumentException("pinThreshold");
+		if (protocols == null || protocols.length == 0)
+			throw new IllegalArgumentException("protocols");
+		
+		this.pinThreshold = pinThreshold;
+		this.decoders = new MavlinkDecoder[protocols.length];
+		this.stxs = new int[protocols.length];
+		int maxPacketLength = 0;
+		for (int i = 0; i < protocols.length; ++i) {
+			if (protocols[i] == null)
+				throw new IllegalArgumentException("protocol");
+			decoders[i] = new MavlinkDecoder(protocols[i]);
+			stxs[i] = protocols[i].getMavlinkStx();
+			int packetLength = Mavlink.getMaxPacketLength(protocols[i]);
+			maxPacketLength = Math.max(maxPacketLength, packetLength);
+		}
+		// buffer always fits a complete frame after the compaction
+		this.pending = new byte[maxPacketLength * 2];
+	}
+	
+	public List<MavlinkDecoder> getDecoders() {
+		return Collections.unmodifiableList(Arrays.asList(decoders));
+	}
+	
+	/**
+	 * Returns decoder of the protocol, or null if the protocol
+	 * is not one of the candidates.
+	 */
+	public MavlinkDecoder getDecoder(ProtocolDescriptor protocol) {
+		for (MavlinkDecoder decoder : decoders) {
+			if (decoder.getProtocol() == protocol)
+				return decoder;
+		}
+		return null;
+	}
+	
+	public int getPinThreshold() {
+		return pinThreshold;
+	}
+	
+	/**
+	 * Returns protocol the stream is pinned to, or null
+	 * if the protocol is still being detected.
+	 */
+	public ProtocolDescriptor getPinnedProtocol() {
+		return pinnedDecoder != null ? pinnedDecoder.getProtocol() : null;
+	}
+	
+	/**
+	 * Returns protocol of the last decoded frame, or null
+	 * if no frames were decoded since the detection start.
+	 */
+	public ProtocolDescriptor getDetectedProtocol() {
+		if (pinnedDecoder != null)
+			return pinnedDecoder.getProtocol();
+		return detectedDecoder != null ? detectedDecoder.getProtocol() : null;
+	}
+	
+	/**
+	 * Restarts protocol detection. Incomplete packet kept
+	 * by the pinned decoder is discarded.
+	 */
+	public void unpin() {
+		if (pinnedDecoder != null)
+			pinnedDecoder.reset();
+		pinnedDecoder = null;
+		detectedDecoder = null;
+		detectedFrames = 0;
+		pendingLength = 0;
+	}
+	
+	public List<MavlinkPacket> decode(byte[] b) throws IOException {
+		if (b == null)
+			throw new NullPointerException();
+		
+		return decode(b, 0, b.length);
+	}
+	
+	public List<MavlinkPacket> decode(byte[] b, int off, int len) throws IOException {
+		PacketCollector collector = new PacketCollector();
+		decode(b, off, len, collector);
+		return collector.packets;
+	}
+	
+	public List<MavlinkPacket> decode(ByteBuffer buffer) throws IOException {
+		PacketCollector collector = new PacketCollector();
+		decode(buffer, collector);
+		return collector.packets;
+	}
+	
+	/* handler based decoding */
+	
+	public void decode(byte[] b, MavlinkPacketHandler handler) throws IOException {
+		if (b == null)
+			throw new NullPointerException();
+		
+		decode(b, 0, b.length, handler);
+	}
+	
+	public void decode(byte[] b, int off, int len, MavlinkPacketHandler handler) throws IOException {
+		if (b == null)
+			throw new NullPointerException();
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		if (pinnedDecoder != null) {
+			pinnedDecoder.decode(b, off, len, handler);
+			return;
+		}
+		int i = off;
+		int limit = off + len;
+		while (i < limit && pinnedDecoder == null) {
+			int length = Math.min(pending.length - pendingLength, limit - i);
+			System.arraycopy(b, i, pending, pendingLength, length);
+			pendingLength += length;
+			i += length;
+			detect(handler);
+		}
+		if (i < limit)
+			pinnedDecoder.decode(b, i, limit - i, handler);
+	}
+	
+	public void decode(ByteBuffer buffer, MavlinkPacketHandler handler) throws IOException {
+		if (buffer == null)
+			throw new NullPointerException();
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		if (pinnedDecoder != null) {
+			pinnedDecoder.decode(buffer, handler);
+			return;
+		}
+		while (buffer.hasRemaining() && pinnedDecoder == null) {
+			int length = Math.min(pending.length - pendingLength, buffer.remaining());
+			buffer.get(pending, pendingLength, length);
+			pendingLength += length;
+			detect(handler);
+		}
+		if (buffer.hasRemaining())
+			pinnedDecoder.decode(buffer, handler);
+	}
+	
+	/**
+	 * Frames packets buffered while detecting the protocol. Bytes that
+	 * can't start a frame of any protocol are skipped, incomplete frame
+	 * is kept in the buffer. When the stream is pinned, the rest of the
+	 * buffer is passed to the pinned decoder.
+	 */
+	private void detect(MavlinkPacketHandler handler) throws IOException {
+		int i = 0;
+		while (i < pendingLength) {
+			MavlinkDecoder decoder = null;
+			boolean truncated = false;
+			int stx = pending[i] & 0xff;
+			for (int k = 0; k < decoders.length; ++k) {
+				if (stxs[k] != stx)
+					continue;
+				MavlinkPacketStatus status = decoders[k].validatePacket(pending, i, pendingLength - i);
+				if (status == MavlinkPacketStatus.VALID) {
+					decoder = decoders[k];
+					break;
+				}
+				if (status == MavlinkPacketStatus.TRUNCATED)
+					truncated = true;
+			}
+			if (decoder == null) {
+				// waiting for the rest of the frame
+				// unless none of the protocols matches
+				if (truncated)
+					break;
+				i++;
+				continue;
+			}
+			
+			int packetLength = decoder.readPacketLength(pending, i);
+			MavlinkPacketFilter filter = decoder.getFilter();
+			MavlinkPacket packet = filter == null
+					|| filter.accept(decoder.readSystemId(pending, i), decoder.readMessageType(pending, i))
+					? decoder.buildPacket(pending, i)
+					: null;
+			i += packetLength;
+			
+			if (decoder == detectedDecoder) {
+				detectedFrames++;
+			} else {
+				detectedDecoder = decoder;
+				detectedFrames = 1;
+			}
+			if (packet != null)
+				handler.handle(packet);
+			if (pinThreshold > 0 && detectedFrames >= pinThreshold) {
+				pinnedDecoder = decoder;
+				pinnedDecoder.reset();
+				if (i < pendingLength)
+					pinnedDecoder.decode(pending, i, pendingLength - i, handler);
+				i = pendingLength;
+				break;
+			}
+		}
+		// compacting
+		pendingLength -= i;
+		System.arraycopy(pending, i, pending, 0, pendingLength);
+	}
+	
+	private static class PacketCollector implements MavlinkPacketHandler {
+		private final List<MavlinkPacket> packets = new ArrayList<MavlinkPacket>();
+		
+		public void handle(MavlinkPacket packet) {
+			packets.add(packet);
+		}
+	}
+}
@@ -1,15 +1,47 @@
 package com.ugcs.mavlink;
 
 // CRC-16-CCITT
- 
-public class MavlinkCrc {
 
-	private int checksum = 0xffff;
+public class MavlinkCrc {
+	private static final int INITIAL_CHECKSUM = 0xffff;
+	
+	// slicing-by-8 lookup tables: TABLES[k][n] is a checksum update
+	// for the byte n followed by k zero bytes
+	private static final int[][] TABLES = newTables(8);
+	private static final int[] T0 = TABLES[0];
+	private static final int[] T1 = TABLES[1];
+	private static final int[] T2 = TABLES[2];
+	private static final int[] T3 = TABLES[3];
+	private static final int[] T4 = TABLES[4];
+	private static final int[] T5 = TABLES[5];
+	private static final int[] T6 = TABLES[6];
+	private static final int[] T7 = TABLES[7];
+	
+	private int checksum = INITIAL_CHECKSUM;
+	
+	/* static init */
+	
+	private static int[][] newTables(int n) {
+		int[][] tables = new int[n][256];
+		for (int i = 0; i < 256; ++i) {
+			// reference bitwise implementation
+			int tmp = i & 0xff;
+			tmp = (tmp ^ tmp << 4) & 0xff;
+			tables[0][i] = ((tmp << 8) ^ (tmp << 3) ^ (tmp >>> 4)) & 0xffff;
+		}
+		for (int k = 1; k < n; ++k) {
+			for (int i = 0; i < 256; ++i) {
+				int prev = tables[k - 1][i];
+				tables[k][i] = (prev >>> 8) ^ tables[0][prev & 0xff];
+			}
+		}
+		return tables;
+	}
+	
+	/* static init (end) */
 	
 	public void append(int value) {
-		int tmp = (value & 0xff) ^ (checksum & 0xff);
-		tmp = (tmp ^ tmp << 4) & 0xff;
-		checksum = (checksum >>> 8 & 0xffff) ^ (tmp << 8) ^ (tmp << 3) ^ (tmp >>> 4);
+		checksum = (checksum >>> 8) ^ T0[(checksum ^ value) & 0xff];
 	}
 	
 	public void append(byte[] b) {
@@ -22,12 +54,52 @@ public class MavlinkCrc {
 		if (off < 0 || len < 0 || off + len > b.length)
 			throw new IndexOutOfBoundsException();
 		
-		int last = off + len;
-		for (int i = off; i < last; ++i)
-			append(b[i] & 0xff);
+		checksum = update(checksum, b, off, len);
 	}
 	
 	public int getChecksum() {
 		return checksum;
-	}	
+	}
+	
+	/**
+	 * Computes checksum of the byte range without allocation of
+	 * the checksum object.
+	 */
+	public static int compute(byte[] b, int off, int len) {
+		if (b == null)
+			throw new IllegalArgumentException("b");
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		
+		return update(INITIAL_CHECKSUM, b, off, len);
+	}
+	
+	/**
+	 * Computes checksum of the byte range followed by the CRC extra byte.
+	 */
+	public static int compute(byte[] b, int off, int len, int crcExtra) {
+		int crc = compute(b, off, len);
+		return (crc >>> 8) ^ T0[(crc ^ crcExtra) & 0xff];
+	}
+	
+	private static int update(int crc, byte[] b, int off, int len) {
+		int i = off;
+		int last = off + len;
+		// slicing-by-8: checksum is updated 8 bytes at a time
+		while (last - i >= 8) {
+			crc ^= (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+			crc = T7[crc & 0xff]
+					^ T6[crc >>> 8]
+					^ T5[b[i + 2] & 0xff]
+					^ T4[b[i + 3] & 0xff]
+					^ T3[b[i + 4] & 0xff]
+					^ T2[b[i + 5] & 0xff]
+					^ T1[b[i + 6] & 0xff]
+					^ T0[b[i + 7] & 0xff];
+			i += 8;
+		}
+		for (; i < last; ++i)
+			crc = (crc >>> 8) ^ T0[(crc ^ b[i]) & 0xff];
+		return crc;
+	}
 }
@@ -1,53 +1,170 @@
 package com.ugcs.mavlink;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MavlinkDecoder {
+	private static final int READ_BUFFER_LENGTH = 8192;
+	
 	private final ProtocolDescriptor protocol;
 	private final int headerLength;
 	private final int checksumLength;
+	// header field offsets
+	private final int systemIdOffset;
+	private final int messageTypeOffset;
 	
 	/* decoder state */
 	
-	private byte[] packetBuffer = new byte[Mavlink.MAX_PACKET_LENGTH];
+	private final byte[] packetBuffer;
+	// zero-filled payload of the truncated MAVLink 2 packets
+	private final byte[] payloadBuffer;
 	private int packetOffset;
-	private int packetLength;
+	private int packetLength; // zero until packet header is validated
 	
 	private boolean packetStarted;
-	private boolean packetComplete;
+	// packet rejected by the filter, its bytes are skipped without buffering
+	private boolean packetSkipped;
+	
+	/* decoder options */
+	
+	private boolean lazyPayload;
+	private MavlinkPacketFilter filter;
+	private boolean filteredCrcValidation;
+	private MavlinkMessagePool messagePool;
+	// frame-only mode of the pipelined decoding
+	private MavlinkFrameHandler frameHandler;
+	
+	// direct buffer for the channel reads, allocated on demand
+	private ByteBuffer readBuffer;
 	
 	/* decoder stats */
 	
-	private long bytesReceived;
-	private long bytesDropped;
-	private long packetsReceived;
-	private long packetsDropped;
+	private final MavlinkDecoderStats stats;
 	
 	public MavlinkDecoder(ProtocolDescriptor protocol) {
 		if (protocol == null)
 			throw new IllegalArgumentException("protocol");
 		
 		this.protocol = protocol;
-		this.headerLength = protocol.isExpandedSystemId() ? 9 : 6;
+		this.headerLength = Mavlink.getHeaderLength(protocol);
 		this.checksumLength = 2;
+		if (protocol.isMavlink2()) {
+			// stx, len, incompat flags, compat flags, seq, sysid, compid, msgid (3 bytes)
+			this.systemIdOffset = 5;
+			this.messageTypeOffset = headerLength - 3;
+			this.payloadBuffer = new byte[Mavlink.MAX_PAYLOAD_LENGTH];
+		} else {
+			// stx, len, seq, sysid, compid, msgid
+			this.systemIdOffset = 3;
+			this.messageTypeOffset = headerLength - 1;
+			this.payloadBuffer = null;
+		}
+		this.packetBuffer = new byte[Mavlink.getMaxPacketLength(protocol)];
+		this.stats = new MavlinkDecoderStats(protocol.getMaxMessageType() + 1);
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	public boolean isLazyPayload() {
+		return lazyPayload;
+	}
+	
+	/**
+	 * In the lazy payload mode decoder validates packet header and checksum,
+	 * but payload is decoded only when {@link MavlinkPacket#getPayload()} 
+	 * is called for the first time. Packets decoded in this mode provide
+	 * raw packet bytes for the pass-through forwarding.
+	 */
+	public void setLazyPayload(boolean lazyPayload) {
+		this.lazyPayload = lazyPayload;
+	}
+	
+	public MavlinkMessagePool getMessagePool() {
+		return messagePool;
+	}
+	
+	/**
+	 * Enables pooled decoding: packets and messages are taken from the pool
+	 * and are decoded in place. Consumer should return every packet
+	 * to the pool with {@link MavlinkMessagePool#release(MavlinkPacket)}
+	 * once it is processed. Pool is not used in the lazy payload mode.
+	 * Null pool disables pooled decoding.
+	 */
+	public void setMessagePool(MavlinkMessagePool messagePool) {
+		if (messagePool != null && messagePool.getProtocol() != protocol)
+			throw new IllegalArgumentException("Pool protocol mismatch");
+		
+		this.messagePool = messagePool;
+	}
+	
+	/**
+	 * Enables frame-only mode: frames with a valid header are passed
+	 * to the frame handler with neither checksum validation nor payload
+	 * decoding, and packet handlers are not called. Null handler
+	 * disables the frame-only mode.
+	 */
+	void setFrameHandler(MavlinkFrameHandler frameHandler) {
+		this.frameHandler = frameHandler;
+	}
+	
+	public MavlinkPacketFilter getFilter() {
+		return filter;
+	}
+	
+	/**
+	 * Sets filter that is applied to the packet header. Bytes of the
+	 * rejected packets are consumed and counted as filtered, but the
+	 * payload is neither validated nor decoded. Null filter accepts all packets.
+	 */
+	public void setFilter(MavlinkPacketFilter filter) {
+		this.filter = filter;
+	}
+	
+	public boolean isFilteredCrcValidation() {
+		return filteredCrcValidation;
+	}
+	
+	/**
+	 * When set, packets rejected by the filter are still checked
+	 * for the checksum match: invalid packets are counted as dropped and 
+	 * the decoder resyncs on them, as it does for the accepted packets.
+	 */
+	public void setFilteredCrcValidation(boolean filteredCrcValidation) {
+		this.filteredCrcValidation = filteredCrcValidation;
+	}
+	
+	/**
+	 * Returns decoder stats, which are safe to read from the other threads.
+	 */
+	public MavlinkDecoderStats getStats() {
+		return stats;
 	}
 	
 	public long getBytesReceived() {
-		return bytesReceived;
+		return stats.getBytesReceived();
 	}
 
 	public long getBytesDropped() {
-		return bytesDropped;
+		return stats.getBytesDropped();
 	}
 
 	public long getPacketsReceived() {
-		return packetsReceived;
+		return stats.getPacketsReceived();
 	}
 
 	public long getPacketsDropped() {
-		return packetsDropped;
+		return stats.getPacketsDropped();
+	}
+	
+	public long getPacketsDropped(MavlinkPacketStatus status) {
+		return stats.getPacketsDropped(status);
 	}
 
 	public List<MavlinkPacket> decode(byte[] b) throws IOException {
@@ -58,71 +175,262 @@ public class MavlinkDecoder {
 	}
 	
 	public List<MavlinkPacket> decode(byte[] b, int off, int len) throws IOException {
+		PacketCollector collector = new PacketCollector();
+		decode(b, off, len, collector);
+		return collector.packets;
+	}
+	
+	/**
+	 * Decodes remaining bytes of the buffer (from the position to the limit).
+	 * Both heap and direct buffers are framed in place, without copying 
+	 * to the intermediate arrays. Incomplete packet at the end of the buffer
+	 * is kept by the decoder and completed on the subsequent calls.
+	 * On return buffer position is equal to its limit.
+	 */
+	public List<MavlinkPacket> decode(ByteBuffer buffer) throws IOException {
+		PacketCollector collector = new PacketCollector();
+		decode(buffer, collector);
+		return collector.packets;
+	}
+	
+	/**
+	 * Performs a single read from the channel and decodes the bytes read.
+	 * 
+	 * @throws EOFException if the channel has reached end-of-stream
+	 */
+	public List<MavlinkPacket> decode(ReadableByteChannel channel) throws IOException {
+		PacketCollector collector = new PacketCollector();
+		if (decode(channel, collector) < 0)
+			throw new EOFException();
+		return collector.packets;
+	}
+	
+	/* handler based decoding */
+	
+	public void decode(byte[] b, MavlinkPacketHandler handler) throws IOException {
+		if (b == null)
+			throw new NullPointerException();
+		
+		decode(b, 0, b.length, handler);
+	}
+	
+	/**
+	 * Passes every decoded packet to the handler as soon as the packet is framed.
+	 * Unlike the list based methods, no per-call allocations are made by the decoder.
+	 */
+	public void decode(byte[] b, int off, int len, MavlinkPacketHandler handler) throws IOException {
 		if (b == null)
 			throw new NullPointerException();
 		if (off < 0 || len < 0 || off + len > b.length)
 			throw new IndexOutOfBoundsException();
-
-		List<MavlinkPacket> result = new ArrayList<MavlinkPacket>();
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		frame(b, null, off, off + len, handler);
+	}
+	
+	public void decode(ByteBuffer buffer, MavlinkPacketHandler handler) throws IOException {
+		if (buffer == null)
+			throw new NullPointerException();
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
 		
+		int position = buffer.position();
+		int limit = buffer.limit();
+		if (buffer.hasArray()) {
+			int arrayOffset = buffer.arrayOffset();
+			frame(buffer.array(), null, arrayOffset + position, arrayOffset + limit, handler);
+		} else {
+			frame(null, buffer, position, limit, handler);
+		}
+		buffer.position(limit);
+	}
+	
+	/**
+	 * Performs a single read from the channel and decodes the bytes read.
+	 * 
+	 * @return number of bytes read, or -1 if the channel has reached end-of-stream
+	 */
+	public int decode(ReadableByteChannel channel, MavlinkPacketHandler handler) throws IOException {
+		if (channel == null)
+			throw new NullPointerException();
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		if (readBuffer == null)
+			readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_LENGTH);
+		readBuffer.clear();
+		int n = channel.read(readBuffer);
+		if (n < 0)
+			return n;
+		readBuffer.flip();
+		decode(readBuffer, handler);
+		return n;
+	}
+	
+	/**
+	 * Frames packets from the [off, limit) range of the source, which is 
+	 * either an array or a direct buffer (other one should be null).
+	 */
+	private void frame(byte[] array, ByteBuffer buffer, int off, int limit, MavlinkPacketHandler handler) {
+		stats.addBytesReceived(limit - off);
+		
+		int mavlinkStx = protocol.getMavlinkStx();
 		int i = off;
-		int limit = off + len;
-		while (i < limit) {
+		while (true) {
 			if (!packetStarted) {
 				// stx
-				int mavlinkStx = protocol.getMavlinkStx();
-				//int stx = 0;
 				boolean stxReceived = false;
+				int start = i;
 				while (i < limit) {
-					if ((b[i++] & 0xff) == mavlinkStx) {
+					byte b = array != null ? array[i] : buffer.get(i);
+					i++;
+					if ((b & 0xff) == mavlinkStx) {
 						stxReceived = true;
 						break;
 					}
-					bytesDropped++;
-				}
-				if (stxReceived) {
-					// starting new message read
-					packetOffset = 0;
-					packetBuffer[packetOffset++] = b[i - 1];
-					packetStarted = true;
-					packetComplete = false;
 				}
+				int skipped = stxReceived ? i - start - 1 : i - start;
+				if (skipped > 0)
+					stats.addBytesResynced(skipped);
+				if (!stxReceived)
+					break;
+				// starting new message read
+				packetBuffer[0] = (byte) mavlinkStx;
+				packetOffset = 1;
+				packetLength = 0;
+				packetStarted = true;
 			}
-			if (packetStarted && !packetComplete) {
-				// initializing payload length
-				if (packetOffset == 1 && i < limit) { // only stx was read
-					packetLength = (b[i] & 0xff) + headerLength + checksumLength;
+			if (packetLength == 0) {
+				// header
+				i += read(array, buffer, i, limit, headerLength);
+				if (packetOffset < headerLength)
+					break;
+				// header is validated before the payload is buffered, 
+				// so the false stx doesn't hide packets that follow it
+				MavlinkPacketStatus status = validateHeader(packetBuffer, 0);
+				if (status != MavlinkPacketStatus.VALID) {
+					dropPacket(status);
+					continue;
 				}
-				// continue only if packet length was initialized
-				if (packetOffset > 1 || limit - i > 0) {
-					int length = Math.min(packetLength - packetOffset, limit - i);
-					if (length > 0) {
-						System.arraycopy(b, i, packetBuffer, packetOffset, length);
-						packetOffset += length;
-						i += length;
-					}
-					if (packetOffset >= packetLength) {
-						// finalize packet read
-						packetComplete = true;
-					}
+				packetLength = readPacketLength(packetBuffer, 0);
+				packetSkipped = filter != null 
+						&& !filteredCrcValidation
+						&& !filter.accept(readSystemId(packetBuffer, 0), readMessageType(packetBuffer, 0));
+			}
+			if (packetSkipped) {
+				// payload and checksum are skipped
+				int length = Math.min(packetLength - packetOffset, limit - i);
+				if (length > 0) {
+					i += length;
+					packetOffset += length;
 				}
+				if (packetOffset < packetLength)
+					break;
+				
+				stats.addPacketFiltered(packetLength);
+				packetSkipped = false;
+				// bytes buffered after the packet are framed again
+				resync(packetLength);
+				continue;
 			}
-			if (packetComplete) {
-				packetsReceived++;
-				try {
-					MavlinkPacket packet = decodeSinglePacket(packetBuffer, 0, packetLength);
-					result.add(packet);
-				} catch (Exception e) {
-					// TODO error logging can be helpful
-					packetsDropped++;
+			// payload and checksum
+			i += read(array, buffer, i, limit, packetLength);
+			if (packetOffset < packetLength)
+				break;
+			
+			if (frameHandler != null) {
+				// checksum is validated and payload is decoded by the frame handler
+				long systemId = readSystemId(packetBuffer, 0);
+				int messageType = readMessageType(packetBuffer, 0);
+				if (filter != null && !filter.accept(systemId, messageType)) {
+					stats.addPacketFiltered(packetLength);
+				} else {
+					stats.addPacket(systemId, messageType, packetLength);
+					frameHandler.handleFrame(packetBuffer, 0, packetLength);
 				}
-				// reset packet flags
-				packetStarted = false;
-				packetComplete = false;
+				resync(packetLength);
+				continue;
+			}
+			MavlinkPacketStatus status = validatePacket(packetBuffer, 0, packetLength);
+			if (status != MavlinkPacketStatus.VALID) {
+				dropPacket(status);
+				continue;
 			}
+			if (filter != null && !filter.accept(readSystemId(packetBuffer, 0), 
+					readMessageType(packetBuffer, 0))) {
+				// validated only for the stats
+				stats.addPacketFiltered(packetLength);
+				resync(packetLength);
+				continue;
+			}
+			MavlinkPacket packet = buildPacket(packetBuffer, 0);
+			stats.addPacket(packet.getSystemId(), packet.getMessageType(), packetLength);
+			// bytes buffered after the packet are framed again
+			resync(packetLength);
+			handler.handle(packet);
+		}
+	}
+	
+	private void dropPacket(MavlinkPacketStatus status) {
+		stats.addPacketDropped(status);
+		// rescanning bytes of the invalid packet that follow its stx
+		resync(1);
+	}
+	
+	/**
+	 * Copies source bytes to the packet buffer until it holds the required
+	 * number of bytes or the source is exhausted.
+	 * 
+	 * @return number of bytes copied
+	 */
+	private int read(byte[] array, ByteBuffer buffer, int i, int limit, int required) {
+		int length = Math.min(required - packetOffset, limit - i);
+		if (length <= 0)
+			return 0;
+		
+		if (array != null) {
+			System.arraycopy(array, i, packetBuffer, packetOffset, length);
+		} else {
+			buffer.position(i);
+			buffer.get(packetBuffer, packetOffset, length);
 		}
-		bytesReceived += len;
-		return result;
+		packetOffset += length;
+		return length;
+	}
+	
+	/**
+	 * Searches for the stx within the packet buffer starting from the
+	 * specified offset and moves the found packet candidate to the buffer start.
+	 */
+	private void resync(int start) {
+		int mavlinkStx = protocol.getMavlinkStx();
+		int k = start;
+		while (k < packetOffset && (packetBuffer[k] & 0xff) != mavlinkStx)
+			k++;
+		if (k > start)
+			stats.addBytesResynced(k - start);
+		if (k < packetOffset) {
+			System.arraycopy(packetBuffer, k, packetBuffer, 0, packetOffset - k);
+			packetOffset -= k;
+			packetLength = 0;
+			packetStarted = true;
+		} else {
+			packetOffset = 0;
+			packetLength = 0;
+			packetStarted = false;
+		}
+	}
+	
+	/**
+	 * Discards incomplete packet kept by the decoder, 
+	 * the next decoded bytes are framed from scratch.
+	 */
+	public void reset() {
+		packetOffset = 0;
+		packetLength = 0;
+		packetStarted = false;
+		packetSkipped = false;
 	}
 	
 	public MavlinkPacket decodeSinglePacket(byte[] b) throws IOException {
@@ -133,83 +441,192 @@ public class MavlinkDecoder {
 	}
 	
 	public MavlinkPacket decodeSinglePacket(byte[] b, int off, int len) throws IOException {
+		MavlinkPacketStatus status = validatePacket(b, off, len);
+		switch (status) {
+		case VALID:
+			return buildPacket(b, off);
+		case TRUNCATED:
+			throw new IllegalArgumentException("buffer to short");
+		case BAD_LENGTH:
+			throw new IllegalArgumentException("Incorrect payload length");
+		case UNKNOWN_TYPE:
+			throw new IllegalArgumentException("Unsupported message type");
+		case BAD_CRC:
+			throw new IllegalArgumentException("Checksum mismatch");
+		default:
+			throw new IllegalStateException("Unknown packet status: " + status);
+		}
+	}
+	
+	/**
+	 * Checks that the buffer range starts with a valid packet. 
+	 * Unlike {@link #decodeSinglePacket(byte[], int, int)} validation
+	 * failures are reported by the returned status and not by exceptions.
+	 */
+	public MavlinkPacketStatus validatePacket(byte[] b, int off, int len) {
 		if (b == null)
 			throw new NullPointerException();
 		if (off < 0 || len < 0 || off + len > b.length)
 			throw new IndexOutOfBoundsException();
 		
-		int i = off;
-		int limit = off + len;
-		
 		// check: can read header
-		if (limit - i < headerLength)
-			throw new IllegalArgumentException("buffer to short");
+		if (len < headerLength)
+			return MavlinkPacketStatus.TRUNCATED;
 		
-		// reading header
-		i++; // skip stx
-		//int stx = b[i++] & 0xff;
-		int payloadLength = b[i++] & 0xff;
-		int sequenceNumber = b[i++] & 0xff;
-		long systemId = 0L;
-		if (protocol.isExpandedSystemId()) {
-			systemId = readUnsignedInt32(b, i);
-			i += 4;
-		} else {
-			systemId = b[i++] & 0xff;
-		}
-		int componentId = b[i++] & 0xff;
-		int messageType = b[i++] & 0xff;
+		MavlinkPacketStatus status = validateHeader(b, off);
+		if (status != MavlinkPacketStatus.VALID)
+			return status;
+		// check: can read payload, checksum and signature
+		if (len < readPacketLength(b, off))
+			return MavlinkPacketStatus.TRUNCATED;
 		
-		// check: payload length and payload id are consistent
-		int estimatedPayloadLength = protocol.getMessageLength(messageType);
-		if (payloadLength != estimatedPayloadLength)
-			throw new IllegalArgumentException("Incorrect payload length");
-		// check: can read payload and checksum
-		if (limit - i < payloadLength + checksumLength)
-			throw new IllegalArgumentException("buffer to short");
+		int payloadLength = b[off + 1] & 0xff;
+		int messageType = readMessageType(b, off);
 		
 		// reading checksum
-		int crcLow = b[i + payloadLength] & 0xff;
-		int crcHigh = b[i + payloadLength + 1] & 0xff;
-
-		// check: crc match
-		MavlinkCrc crc = new MavlinkCrc();
-		crc.append(b, off + 1, payloadLength + (headerLength - 1));
-		if (protocol.isCrcExtraByte())
-			crc.append(protocol.getMessageCrcExtraByte(messageType));
+		int i = off + headerLength + payloadLength;
+		int crcLow = b[i] & 0xff;
+		int crcHigh = b[i + 1] & 0xff;
 		
-		int checksum = crc.getChecksum();
+		// check: crc match
+		int checksum = protocol.isCrcExtraByte()
+				? MavlinkCrc.compute(b, off + 1, payloadLength + (headerLength - 1), 
+						protocol.getMessageCrcExtraByte(messageType))
+				: MavlinkCrc.compute(b, off + 1, payloadLength + (headerLength - 1));
 		if ((checksum & 0xffff) != ((crcHigh << 8) | crcLow))
-			throw new IllegalArgumentException("Checksum mismatch");
+			return MavlinkPacketStatus.BAD_CRC;
 		
-		// wrapper over buffer
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off + headerLength, payloadLength);
-		MavlinkMessageBuilder builder = protocol.newMessageBuilder(messageType);
-		MavlinkMessage payload = builder.readFrom(in).build();
+		return MavlinkPacketStatus.VALID;
+	}
+	
+	private MavlinkPacketStatus validateHeader(byte[] b, int off) {
+		int payloadLength = b[off + 1] & 0xff;
+		int messageType = readMessageType(b, off);
+		if (protocol.isMavlink2()) {
+			// check: packet can be processed by the decoder
+			int incompatibilityFlags = b[off + 2] & 0xff;
+			if ((incompatibilityFlags & ~Mavlink.INCOMPAT_FLAG_SIGNED) != 0)
+				return MavlinkPacketStatus.BAD_FLAGS;
+		}
+		if (!protocol.isSupported(messageType))
+			return MavlinkPacketStatus.UNKNOWN_TYPE;
+		// check: payload length and payload id are consistent
+		int messageLength = protocol.getMessageLength(messageType);
+		if (protocol.isMavlink2()) {
+			// trailing zero bytes of the payload may be truncated,
+			// but the first byte is always sent
+			if (payloadLength > messageLength || (payloadLength == 0 && messageLength > 0))
+				return MavlinkPacketStatus.BAD_LENGTH;
+		} else {
+			if (payloadLength != messageLength)
+				return MavlinkPacketStatus.BAD_LENGTH;
+		}
+		
+		return MavlinkPacketStatus.VALID;
+	}
+	
+	/**
+	 * Returns length of the packet including checksum and signature.
+	 */
+	int readPacketLength(byte[] b, int off) {
+		int packetLength = headerLength + (b[off + 1] & 0xff) + checksumLength;
+		if (protocol.isMavlink2() && (b[off + 2] & Mavlink.INCOMPAT_FLAG_SIGNED) != 0)
+			packetLength += Mavlink.SIGNATURE_LENGTH;
+		return packetLength;
+	}
+	
+	/**
+	 * Constructs packet from the validated packet bytes.
+	 */
+	MavlinkPacket buildPacket(byte[] b, int off) {
+		int i = off;
+		
+		// reading header
+		i++; // skip stx
+		int payloadLength = b[i++] & 0xff;
+		int incompatibilityFlags = 0;
+		int compatibilityFlags = 0;
+		if (protocol.isMavlink2()) {
+			incompatibilityFlags = b[i++] & 0xff;
+			compatibilityFlags = b[i++] & 0xff;
+		}
+		int sequenceNumber = b[i++] & 0xff;
+		long systemId = readSystemId(b, off);
+		i += protocol.isExpandedSystemId() ? 4 : 1;
+		int componentId = b[i++] & 0xff;
+		int messageType = readMessageType(b, off);
 		
 		// constructing result
-		MavlinkPacket packet = new MavlinkPacket();
+		MavlinkPacket packet = messagePool != null && !lazyPayload
+				? messagePool.acquirePacket()
+				: new MavlinkPacket();
 		packet.setPayloadLength(payloadLength);
+		packet.setIncompatibilityFlags(incompatibilityFlags);
+		packet.setCompatibilityFlags(compatibilityFlags);
 		packet.setSequenceNumber(sequenceNumber);
 		packet.setSystemId(systemId);
 		packet.setComponentId(componentId);
 		packet.setMessageType(messageType);
-		packet.setPayload(payload);
+		int messageLength = protocol.getMessageLength(messageType);
+		if (lazyPayload) {
+			// packet keeps a copy of the frame, payload 
+			// is decoded on the first getPayload() call
+			int packetLength = readPacketLength(b, off);
+			byte[] rawBytes = Arrays.copyOfRange(b, off, off + packetLength);
+			packet.setRawBytes(rawBytes, headerLength, messageLength, protocol);
+			return packet;
+		}
+		
+		byte[] payloadBytes = b;
+		int payloadOffset = off + headerLength;
+		if (payloadLength < messageLength) {
+			// truncated payload is zero-filled up to the message length
+			System.arraycopy(b, payloadOffset, payloadBuffer, 0, payloadLength);
+			Arrays.fill(payloadBuffer, payloadLength, messageLength, (byte) 0);
+			payloadBytes = payloadBuffer;
+			payloadOffset = 0;
+		}
+		if (messagePool != null) {
+			MavlinkMessage payload = messagePool.acquireMessage(messageType);
+			protocol.getMessageFactory(messageType).readInto(payload, payloadBytes, payloadOffset);
+			packet.setPayload(payload);
+		} else {
+			MavlinkMessage payload = protocol.getMessageFactory(messageType).readFrom(payloadBytes, payloadOffset);
+			packet.setPayload(payload);
+		}
 		
 		return packet;
 	}
 	
+	private static class PacketCollector implements MavlinkPacketHandler {
+		private final List<MavlinkPacket> packets = new ArrayList<MavlinkPacket>();
+		
+		public void handle(MavlinkPacket packet) {
+			packets.add(packet);
+		}
+	}
+	
+	long readSystemId(byte[] b, int off) {
+		return protocol.isExpandedSystemId()
+				? readUnsignedInt32(b, off + systemIdOffset)
+				: b[off + systemIdOffset] & 0xff;
+	}
+	
+	int readMessageType(byte[] b, int off) {
+		int i = off + messageTypeOffset;
+		if (protocol.isMavlink2()) {
+			// 24-bit little-endian message id
+			return (b[i] & 0xff) 
+					| (b[i + 1] & 0xff) << 8 
+					| (b[i + 2] & 0xff) << 16;
+		}
+		return b[i] & 0xff;
+	}
+	
 	private long readUnsignedInt32(byte[] buffer, int offset) {
 		if (buffer == null || buffer.length - offset < 4)
 			throw new IllegalArgumentException("buffer");
 		
-		int b1 = buffer[offset] & 0xff;
-		int b2 = buffer[offset + 1] & 0xff;
-		int b3 = buffer[offset + 2] & 0xff;
-		int b4 = buffer[offset + 3] & 0xff;
-		int value = protocol.isLittleEndian() ?
-				(b4 << 24) | (b3 << 16) | (b2 << 8) | b1 :
-				(b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
-		return value & 0xffffffffL;
+		return CodedByteArray.readUnsignedInt32(buffer, offset, protocol.isLittleEndian());
 	}
 }
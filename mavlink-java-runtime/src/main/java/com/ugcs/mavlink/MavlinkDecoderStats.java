@@ -0,0 +1,333 @@
+package com.ugcs.mavlink;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Decoder traffic counters: totals, drops by reason, packets and bytes
+ * by message type and by system id.
+ * <p>
+ * Counters are updated by the decoding thread only and can be read
+ * from any other thread (e.g. by JMX) without locking. Every counter
+ * is a 64-bit atomic value, so readers never see a torn value,
+ * though values read one by one are not a consistent snapshot.
+ * <p>
+ * Message type and system id tables grow with the traffic seen,
+ * so the stats of an idle decoder take little memory.
+ */
+public class MavlinkDecoderStats implements MavlinkDecoderStatsMXBean {
+	// max number of the distinct system ids tracked,
+	// traffic of other systems is counted under OTHER_SYSTEM_ID
+	private static final int MAX_SYSTEM_TABLE_CAPACITY = 1024;
+	private static final int INITIAL_SYSTEM_TABLE_CAPACITY = 16;
+	private static final int INITIAL_MESSAGE_TYPES = 64;
+	
+	public static final long OTHER_SYSTEM_ID = -1L;
+	
+	/* totals */
+	
+	private static final int BYTES_RECEIVED = 0;
+	private static final int BYTES_DROPPED = 1;
+	private static final int BYTES_RESYNCED = 2;
+	private static final int PACKETS_RECEIVED = 3;
+	private static final int PACKETS_DROPPED = 4;
+	private static final int BYTES_FILTERED = 5;
+	private static final int PACKETS_FILTERED = 6;
+	
+	private final AtomicLongArray totals = new AtomicLongArray(7);
+	private final AtomicLongArray packetsDroppedByStatus =
+			new AtomicLongArray(MavlinkPacketStatus.values().length);
+	
+	/* message types */
+	
+	private final int messageTypes;
+	// covers types seen so far, null until the first packet
+	private volatile MessageTable messageTable;
+	
+	/* system ids */
+	
+	private volatile SystemTable systemTable = new SystemTable(INITIAL_SYSTEM_TABLE_CAPACITY);
+	
+	public MavlinkDecoderStats() {
+		this(256);
+	}
+	
+	/**
+	 * @param messageTypes number of the message types tracked,
+	 * types are in the [0, messageTypes) range
+	 */
+	public MavlinkDecoderStats(int messageTypes) {
+		if (messageTypes <= 0)
+			throw new IllegalArgumentException("messageTypes");
+		
+		this.messageTypes = messageTypes;
+	}
+	
+	/* updates, single writer */
+	
+	// writer is the only thread modifying counters, so read-increment-write
+	// is safe and ordered writes are enough to publish values to the readers
+	private static void add(AtomicLongArray counters, int i, long delta) {
+		counters.lazySet(i, counters.get(i) + delta);
+	}
+	
+	void addBytesReceived(int n) {
+		add(totals, BYTES_RECEIVED, n);
+	}
+	
+	/**
+	 * Counts bytes skipped while searching for the packet start.
+	 */
+	void addBytesResynced(int n) {
+		add(totals, BYTES_RESYNCED, n);
+		add(totals, BYTES_DROPPED, n);
+	}
+	
+	void addPacketDropped(MavlinkPacketStatus status) {
+		add(totals, PACKETS_RECEIVED, 1);
+		add(totals, PACKETS_DROPPED, 1);
+		add(packetsDroppedByStatus, status.ordinal(), 1);
+		// stx of the dropped packet
+		add(totals, BYTES_DROPPED, 1);
+	}
+	
+	/**
+	 * Counts packet rejected by the decoder filter.
+	 */
+	void addPacketFiltered(int packetLength) {
+		add(totals, PACKETS_FILTERED, 1);
+		add(totals, BYTES_FILTERED, packetLength);
+	}
+	
+	void addPacket(long systemId, int messageType, int packetLength) {
+		add(totals, PACKETS_RECEIVED, 1);
+		if (messageType >= 0 && messageType < messageTypes) {
+			MessageTable table = messageTable;
+			if (table == null || messageType >= table.packets.length())
+				table = growMessageTable(messageType);
+			add(table.packets, messageType, 1);
+			add(table.bytes, messageType, packetLength);
+		}
+		SystemTable table = systemTable;
+		int slot = table.slot(systemId);
+		if (slot < 0) {
+			table = growSystemTable();
+			slot = table.slot(systemId);
+		}
+		add(table.packets, slot, 1);
+		add(table.bytes, slot, packetLength);
+	}
+	
+	private MessageTable growMessageTable(int messageType) {
+		int length = Math.max(INITIAL_MESSAGE_TYPES, Integer.highestOneBit(messageType) << 1);
+		MessageTable table = new MessageTable(Math.min(length, messageTypes));
+		MessageTable old = messageTable;
+		if (old != null) {
+			for (int i = 0; i < old.packets.length(); ++i) {
+				table.packets.lazySet(i, old.packets.get(i));
+				table.bytes.lazySet(i, old.bytes.get(i));
+			}
+		}
+		messageTable = table;
+		return table;
+	}
+	
+	private SystemTable growSystemTable() {
+		SystemTable old = systemTable;
+		SystemTable table = new SystemTable(old.capacity * 2);
+		for (int i = 0; i < old.capacity; ++i) {
+			long key = old.keys.get(i);
+			if (key != 0L) {
+				int slot = table.slot(key - 1);
+				table.packets.lazySet(slot, old.packets.get(i));
+				table.bytes.lazySet(slot, old.bytes.get(i));
+			}
+		}
+		systemTable = table;
+		return table;
+	}
+	
+	/**
+	 * Registers stats in the platform MBean server under the
+	 * <tt>com.ugcs.mavlink:type=MavlinkDecoder,name=&lt;name&gt;</tt> name.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		
+		ObjectName objectName = new ObjectName(
+				"com.ugcs.mavlink:type=MavlinkDecoder,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+	
+	/* reads */
+	
+	public long getBytesReceived() {
+		return totals.get(BYTES_RECEIVED);
+	}
+	
+	public long getBytesDropped() {
+		return totals.get(BYTES_DROPPED);
+	}
+	
+	/**
+	 * Returns number of bytes skipped while searching for the packet start.
+	 */
+	public long getBytesResynced() {
+		return totals.get(BYTES_RESYNCED);
+	}
+	
+	public long getPacketsReceived() {
+		return totals.get(PACKETS_RECEIVED);
+	}
+	
+	public long getPacketsDropped() {
+		return totals.get(PACKETS_DROPPED);
+	}
+	
+	public long getBytesFiltered() {
+		return totals.get(BYTES_FILTERED);
+	}
+	
+	public long getPacketsFiltered() {
+		return totals.get(PACKETS_FILTERED);
+	}
+	
+	public long getPacketsDropped(MavlinkPacketStatus status) {
+		if (status == null)
+			throw new IllegalArgumentException("status");
+		
+		return packetsDroppedByStatus.get(status.ordinal());
+	}
+	
+	public long getPackets(int messageType) {
+		MessageTable table = messageTable;
+		if (table == null || messageType < 0 || messageType >= table.packets.length())
+			return 0L;
+		
+		return table.packets.get(messageType);
+	}
+	
+	public long getBytes(int messageType) {
+		MessageTable table = messageTable;
+		if (table == null || messageType < 0 || messageType >= table.bytes.length())
+			return 0L;
+		
+		return table.bytes.get(messageType);
+	}
+	
+	public Map<String, Long> getPacketsDroppedByReason() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (MavlinkPacketStatus status : MavlinkPacketStatus.values()) {
+			if (status != MavlinkPacketStatus.VALID)
+				result.put(status.name(), packetsDroppedByStatus.get(status.ordinal()));
+		}
+		return result;
+	}
+	
+	public Map<Integer, Long> getPacketsByMessageType() {
+		MessageTable table = messageTable;
+		return toMap(table != null ? table.packets : null);
+	}
+	
+	public Map<Integer, Long> getBytesByMessageType() {
+		MessageTable table = messageTable;
+		return toMap(table != null ? table.bytes : null);
+	}
+	
+	public Map<Long, Long> getPacketsBySystemId() {
+		SystemTable table = systemTable;
+		return toSystemMap(table, table.packets);
+	}
+	
+	public Map<Long, Long> getBytesBySystemId() {
+		SystemTable table = systemTable;
+		return toSystemMap(table, table.bytes);
+	}
+	
+	private static Map<Integer, Long> toMap(AtomicLongArray counters) {
+		Map<Integer, Long> result = new TreeMap<Integer, Long>();
+		if (counters == null)
+			return result;
+		for (int i = 0; i < counters.length(); ++i) {
+			long value = counters.get(i);
+			if (value != 0L)
+				result.put(i, value);
+		}
+		return result;
+	}
+	
+	private static Map<Long, Long> toSystemMap(SystemTable table, AtomicLongArray counters) {
+		Map<Long, Long> result = new TreeMap<Long, Long>();
+		for (int i = 0; i < table.capacity; ++i) {
+			long key = table.keys.get(i);
+			long value = counters.get(i);
+			if (key != 0L && value != 0L)
+				result.put(key - 1, value);
+		}
+		long other = counters.get(table.capacity);
+		if (other != 0L)
+			result.put(OTHER_SYSTEM_ID, other);
+		return result;
+	}
+	
+	/* tables, replaced by the writer on growth */
+	
+	private static class MessageTable {
+		final AtomicLongArray packets;
+		final AtomicLongArray bytes;
+		
+		MessageTable(int length) {
+			this.packets = new AtomicLongArray(length);
+			this.bytes = new AtomicLongArray(length);
+		}
+	}
+	
+	private static class SystemTable {
+		final int capacity;
+		// open addressing table, key is a system id + 1, zero marks an empty slot
+		final AtomicLongArray keys;
+		// last slot counts the systems that don't fit the table
+		final AtomicLongArray packets;
+		final AtomicLongArray bytes;
+		int count;
+		
+		SystemTable(int capacity) {
+			this.capacity = capacity;
+			this.keys = new AtomicLongArray(capacity);
+			this.packets = new AtomicLongArray(capacity + 1);
+			this.bytes = new AtomicLongArray(capacity + 1);
+		}
+		
+		/**
+		 * Returns slot of the system, or -1 if the table
+		 * should grow to fit a new system.
+		 */
+		int slot(long systemId) {
+			long key = systemId + 1;
+			int mask = capacity - 1;
+			int i = (int) ((key ^ (key >>> 32)) * 0x9e3779b9L >>> 16) & mask;
+			while (true) {
+				long slotKey = keys.get(i);
+				if (slotKey == key)
+					return i;
+				if (slotKey == 0L) {
+					// keeping the table sparse, other systems go to the overflow slot
+					if (count >= capacity * 3 / 4)
+						return capacity < MAX_SYSTEM_TABLE_CAPACITY ? -1 : capacity;
+					count++;
+					keys.lazySet(i, key);
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.ugcs.mavlink;
+
+import java.util.Map;
+
+/**
+ * Management interface of the decoder stats.
+ */
+public interface MavlinkDecoderStatsMXBean {
+	long getBytesReceived();
+	long getBytesDropped();
+	long getBytesResynced();
+	long getPacketsReceived();
+	long getPacketsDropped();
+	long getBytesFiltered();
+	long getPacketsFiltered();
+	
+	Map<String, Long> getPacketsDroppedByReason();
+	Map<Integer, Long> getPacketsByMessageType();
+	Map<Integer, Long> getBytesByMessageType();
+	Map<Long, Long> getPacketsBySystemId();
+	Map<Long, Long> getBytesBySystemId();
+}
@@ -1,82 +1,153 @@
 package com.ugcs.mavlink;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class MavlinkEncoder {
 	private final ProtocolDescriptor protocol;
 	private final int headerLength;
 	private final int checksumLength;
-
+	
+	// intermediate buffer for encoding to the direct buffers, allocated on demand
+	private byte[] packetBuffer;
+	
 	public MavlinkEncoder(ProtocolDescriptor protocol) {
 		if (protocol == null)
 			throw new IllegalArgumentException("protocol");
 		
 		this.protocol = protocol;
-		this.headerLength = protocol.isExpandedSystemId() ? 9 : 6;
+		this.headerLength = Mavlink.getHeaderLength(protocol);
 		this.checksumLength = 2;
 	}
 	
+	/**
+	 * Returns length of the encoded packet. For MAVLink 2 it is the max
+	 * length: encoded packet is shorter if trailing payload bytes are zero.
+	 */
+	public int getPacketLength(MavlinkPacket packet) {
+		MavlinkMessage payload = getPayload(packet);
+		
+		// packet length is payload length + extra bytes
+		// for the packet header and checksum
+		return headerLength + protocol.getMessageLength(payload.getMavlinkMessageType()) + checksumLength;
+	}
+	
 	public byte[] encode(MavlinkPacket packet) throws IOException {
-		if (packet == null)
-			throw new IllegalArgumentException("packet");
-		MavlinkMessage payload = packet.getPayload();
-		if (payload == null)
-			throw new IllegalArgumentException("Packet payload not set");
+		byte[] buffer = new byte[getPacketLength(packet)];
+		int n = encodeTo(packet, buffer, 0);
+		// payload is truncated
+		if (n < buffer.length)
+			buffer = Arrays.copyOf(buffer, n);
+		return buffer;
+	}
+	
+	/**
+	 * Encodes packet to the buffer starting from its current position.
+	 * On return buffer position is advanced by the number of bytes written.
+	 *
+	 * @return number of bytes written
+	 * @throws BufferOverflowException if remaining buffer space
+	 * is insufficient for the packet
+	 */
+	public int encodeTo(MavlinkPacket packet, ByteBuffer buffer) throws IOException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer");
+		
+		// max packet length is required
+		int packetLength = getPacketLength(packet);
+		if (buffer.remaining() < packetLength)
+			throw new BufferOverflowException();
+		
+		int n;
+		if (buffer.hasArray()) {
+			n = encodeTo(packet, buffer.array(), buffer.arrayOffset() + buffer.position());
+			buffer.position(buffer.position() + n);
+		} else {
+			if (packetBuffer == null)
+				packetBuffer = new byte[headerLength + Mavlink.MAX_PAYLOAD_LENGTH + checksumLength];
+			n = encodeTo(packet, packetBuffer, 0);
+			buffer.put(packetBuffer, 0, n);
+		}
+		return n;
+	}
+	
+	/**
+	 * Encodes packet to the array starting at the specified offset.
+	 *
+	 * @return number of bytes written
+	 */
+	public int encodeTo(MavlinkPacket packet, byte[] b, int off) throws IOException {
+		MavlinkMessage payload = getPayload(packet);
+		if (b == null)
+			throw new IllegalArgumentException("b");
 		
 		int messageType = payload.getMavlinkMessageType();
 		int payloadLength = protocol.getMessageLength(messageType);
-		
-		// result length is payload length + extra bytes 
-		// for the packet header and checksum
-		int bufferLength = headerLength + payloadLength + checksumLength;
-		byte[] buffer = new byte[bufferLength];
-		ByteArrayOutputStream out = new ByteArrayOutputStream(buffer);
+		int packetLength = headerLength + payloadLength + checksumLength;
+		if (off < 0 || off + packetLength > b.length)
+			throw new IndexOutOfBoundsException();
 		
 		// packet header
-		out.write(protocol.getMavlinkStx());
-		out.write(payloadLength);
-		out.write(packet.getSequenceNumber());
-		if (protocol.isExpandedSystemId())
-			writeUnsignedInt32(out, packet.getSystemId());
-		else
-			out.write((int) packet.getSystemId());
-		out.write(packet.getComponentId());
-		out.write(messageType);
+		int i = off;
+		b[i++] = (byte) protocol.getMavlinkStx();
+		b[i++] = (byte) payloadLength;
+		if (protocol.isMavlink2()) {
+			// packets are not signed by the encoder
+			b[i++] = (byte) (packet.getIncompatibilityFlags() & ~Mavlink.INCOMPAT_FLAG_SIGNED);
+			b[i++] = (byte) packet.getCompatibilityFlags();
+		}
+		b[i++] = (byte) packet.getSequenceNumber();
+		if (protocol.isExpandedSystemId()) {
+			writeUnsignedInt32(b, i, packet.getSystemId());
+			i += 4;
+		} else {
+			b[i++] = (byte) packet.getSystemId();
+		}
+		b[i++] = (byte) packet.getComponentId();
+		b[i++] = (byte) messageType;
+		if (protocol.isMavlink2()) {
+			// 24-bit little-endian message id
+			b[i++] = (byte) (messageType >>> 8);
+			b[i++] = (byte) (messageType >>> 16);
+		}
 		// payload data
 		// TODO is serialized message length is exactly same
 		// as stated by the getMessageLength()?
 		if (payloadLength > 0)
-			payload.writeTo(out);
+			payload.writeTo(b, i);
+		if (protocol.isMavlink2()) {
+			// trailing zero bytes are truncated, except the first payload byte
+			while (payloadLength > 1 && b[i + payloadLength - 1] == 0)
+				payloadLength--;
+			b[off + 1] = (byte) payloadLength;
+		}
+		i += payloadLength;
 		// checksum
-		MavlinkCrc rc = new MavlinkCrc();
-		rc.append(buffer, 1, buffer.length - (checksumLength + 1));
-		if (protocol.isCrcExtraByte())
-			rc.append(protocol.getMessageCrcExtraByte(messageType));
-		int checksum = rc.getChecksum();
-		out.write(checksum);
-		out.write(checksum >>> 8);
+		int checksum = protocol.isCrcExtraByte()
+				? MavlinkCrc.compute(b, off + 1, i - off - 1, protocol.getMessageCrcExtraByte(messageType))
+				: MavlinkCrc.compute(b, off + 1, i - off - 1);
+		b[i++] = (byte) checksum;
+		b[i++] = (byte) (checksum >>> 8);
 		
-		return buffer;
+		return i - off;
 	}
 	
-	private void writeUnsignedInt32(OutputStream out, long value) throws IOException {
-		if (out == null)
-			throw new IllegalArgumentException("out");
+	private MavlinkMessage getPayload(MavlinkPacket packet) {
+		if (packet == null)
+			throw new IllegalArgumentException("packet");
+		MavlinkMessage payload = packet.getPayload();
+		if (payload == null)
+			throw new IllegalArgumentException("Packet payload not set");
+		
+		return payload;
+	}
+	
+	private void writeUnsignedInt32(byte[] buffer, int offset, long value) {
 		if ((value >>> 32) != 0)
 			throw new IllegalArgumentException("Value can't be narrowed without data loss: " + value);
 		
-		int nrrowed = (int) value;
-		if (protocol.isLittleEndian()) {
-			out.write(nrrowed & 0xff);
-			out.write((nrrowed >>> 8) & 0xff);
-			out.write((nrrowed >>> 16) & 0xff);
-			out.write((nrrowed >>> 24) & 0xff);
-		} else {
-			out.write((nrrowed >>> 24) & 0xff);
-			out.write((nrrowed >>> 16) & 0xff);
-			out.write((nrrowed >>> 8) & 0xff);
-			out.write(nrrowed & 0xff);
-		}
+		CodedByteArray.writeInt32(buffer, offset, (int) value, protocol.isLittleEndian());
 	}
 }
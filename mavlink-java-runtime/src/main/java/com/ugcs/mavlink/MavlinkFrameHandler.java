@@ -0,0 +1,12 @@
+package com.ugcs.mavlink;
+
+/**
+ * Receiver of the raw frames in the frame-only decoding mode.
+ */
+interface MavlinkFrameHandler {
+	/**
+	 * Called with the frame bytes, which are valid
+	 * only until the method returns.
+	 */
+	void handleFrame(byte[] b, int off, int len);
+}
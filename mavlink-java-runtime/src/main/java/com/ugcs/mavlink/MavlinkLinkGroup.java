@@ -0,0 +1,470 @@
+package com.ugcs.mavlink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes packets of many links on a fixed number of threads (shards).
+ * <p>
+ * Every link owns a decoder and a queue of the received chunks. Link
+ * is assigned to a shard by its id, and a link with queued chunks is
+ * scheduled to the run queue of its shard at most once, so bytes of
+ * a link are decoded in order and never concurrently, and decoders
+ * need no locking. Link handler is called by the shard thread.
+ * <p>
+ * Shard load is reported by {@link #getShardLoads()}; {@link #rebalance()}
+ * moves links from the most loaded shards to the least loaded ones
+ * and is intended to be called periodically.
+ */
+public class MavlinkLinkGroup {
+	// max number of chunks decoded per link scheduling,
+	// so a hot link doesn't starve the other links of the shard
+	private static final int MAX_CHUNKS_PER_RUN = 16;
+	// links are moved while the load difference of the hottest and
+	// the coldest shards exceeds this fraction of the average shard load
+	private static final double REBALANCE_TOLERANCE = 0.25;
+	
+	private final ProtocolDescriptor protocol;
+	private final Shard[] shards;
+	private final ConcurrentHashMap<Long, Link> links = new ConcurrentHashMap<Long, Link>();
+	
+	private boolean started;
+	
+	public MavlinkLinkGroup(ProtocolDescriptor protocol) {
+		this(protocol, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public MavlinkLinkGroup(ProtocolDescriptor protocol, int shardCount) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (shardCount <= 0)
+			throw new IllegalArgumentException("shardCount");
+		
+		this.protocol = protocol;
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; ++i)
+			shards[i] = new Shard(i);
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	/**
+	 * Starts shard threads.
+	 */
+	public synchronized void start() {
+		if (started)
+			throw new IllegalStateException("Link group is already started");
+		
+		started = true;
+		for (Shard shard : shards) {
+			Thread thread = new Thread(shard, "mavlink-link-group-" + shard.index);
+			thread.setDaemon(true);
+			shard.thread = thread;
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Stops shard threads, chunks that are not decoded yet are discarded.
+	 */
+	public synchronized void shutdown() {
+		for (Shard shard : shards) {
+			shard.running = false;
+			if (shard.thread != null)
+				shard.thread.interrupt();
+		}
+	}
+	
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Shard shard : shards) {
+			Thread thread = shard.thread;
+			if (thread == null)
+				continue;
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return false;
+			TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+			if (thread.isAlive())
+				return false;
+		}
+		return true;
+	}
+	
+	/* links */
+	
+	/**
+	 * Creates link with a new decoder of the group protocol.
+	 * Decoder can be configured (see {@link Link#getDecoder()})
+	 * before the first chunk is submitted.
+	 */
+	public synchronized Link addLink(long linkId, MavlinkPacketHandler handler) {
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		if (links.containsKey(linkId))
+			throw new IllegalArgumentException("Duplicate link id");
+		
+		Shard shard = shards[shardIndex(linkId)];
+		Link link = new Link(linkId, new MavlinkDecoder(protocol), handler, shard);
+		links.put(linkId, link);
+		shard.links.incrementAndGet();
+		return link;
+	}
+	
+	private int shardIndex(long linkId) {
+		long h = linkId * 0x9e3779b97f4a7c15L;
+		int hash = (int) (h ^ (h >>> 32));
+		return (hash & 0x7fffffff) % shards.length;
+	}
+	
+	public Link getLink(long linkId) {
+		return links.get(linkId);
+	}
+	
+	/**
+	 * Removes link, chunks that are not decoded yet are discarded.
+	 */
+	public synchronized void removeLink(long linkId) {
+		Link link = links.remove(linkId);
+		if (link == null)
+			return;
+		
+		link.closed = true;
+		link.shard.links.decrementAndGet();
+	}
+	
+	public int getLinkCount() {
+		return links.size();
+	}
+	
+	/* load */
+	
+	public List<ShardLoad> getShardLoads() {
+		List<ShardLoad> result = new ArrayList<ShardLoad>(shards.length);
+		for (Shard shard : shards) {
+			ShardLoad load = new ShardLoad();
+			load.shard = shard.index;
+			load.links = shard.links.get();
+			load.queuedLinks = shard.runQueue.size();
+			load.bytesDecoded = shard.bytesDecoded;
+			load.packetsDecoded = shard.packetsDecoded;
+			load.busyNanos = shard.busyNanos;
+			load.errors = shard.errors;
+			result.add(load);
+		}
+		return result;
+	}
+	
+	/**
+	 * Moves hot links from the shards that decoded more bytes than
+	 * the others since the previous rebalancing. Link is moved only
+	 * if that reduces the difference between the source and target
+	 * shards, so a single link hotter than its shard mates stays put.
+	 * Idle links are never moved.
+	 *
+	 * @return number of the links moved
+	 */
+	public synchronized int rebalance() {
+		long[] shardLoads = new long[shards.length];
+		List<List<Link>> shardLinks = new ArrayList<List<Link>>(shards.length);
+		for (int i = 0; i < shards.length; ++i)
+			shardLinks.add(new ArrayList<Link>());
+		long totalLoad = 0;
+		for (Link link : links.values()) {
+			long bytesDecoded = link.bytesDecoded;
+			link.load = bytesDecoded - link.rebalanceBytes;
+			link.rebalanceBytes = bytesDecoded;
+			shardLoads[link.shard.index] += link.load;
+			shardLinks.get(link.shard.index).add(link);
+			totalLoad += link.load;
+		}
+		
+		long tolerance = (long) (totalLoad / shards.length * REBALANCE_TOLERANCE);
+		int moved = 0;
+		while (true) {
+			int hot = 0;
+			int cold = 0;
+			for (int i = 1; i < shards.length; ++i) {
+				if (shardLoads[i] > shardLoads[hot])
+					hot = i;
+				if (shardLoads[i] < shardLoads[cold])
+					cold = i;
+			}
+			long gap = shardLoads[hot] - shardLoads[cold];
+			if (gap <= tolerance)
+				break;
+			
+			// hottest link that reduces the gap
+			Link candidate = null;
+			for (Link link : shardLinks.get(hot)) {
+				if (link.load > 0 && link.load < gap
+						&& (candidate == null || link.load > candidate.load))
+					candidate = link;
+			}
+			if (candidate == null)
+				break;
+			
+			shardLinks.get(hot).remove(candidate);
+			shardLinks.get(cold).add(candidate);
+			shardLoads[hot] -= candidate.load;
+			shardLoads[cold] += candidate.load;
+			// link that is scheduled now is completed by the
+			// current shard, its next scheduling goes to the new one
+			shards[hot].links.decrementAndGet();
+			shards[cold].links.incrementAndGet();
+			candidate.shard = shards[cold];
+			moved++;
+		}
+		return moved;
+	}
+	
+	public static class Link {
+		private final long id;
+		private final MavlinkDecoder decoder;
+		private final MavlinkPacketHandler handler;
+		// handler failures don't stop decoding of the chunk
+		private final MavlinkPacketHandler guardedHandler = new MavlinkPacketHandler() {
+			public void handle(MavlinkPacket packet) {
+				try {
+					handler.handle(packet);
+				} catch (RuntimeException e) {
+					handlerErrors++;
+					lastError = e;
+				}
+			}
+		};
+		
+		private final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<ByteBuffer>();
+		// set while the link is in the run queue or is being decoded
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile Shard shard;
+		private volatile boolean closed;
+		
+		// written by the shard thread only
+		private volatile long bytesDecoded;
+		private volatile long errors;
+		private volatile Exception lastError;
+		private long handlerErrors;
+		
+		// rebalancing state, guarded by the group
+		private long rebalanceBytes;
+		private long load;
+		
+		private Link(long id, MavlinkDecoder decoder, MavlinkPacketHandler handler, Shard shard) {
+			this.id = id;
+			this.decoder = decoder;
+			this.handler = handler;
+			this.shard = shard;
+		}
+		
+		public long getId() {
+			return id;
+		}
+		
+		public MavlinkDecoder getDecoder() {
+			return decoder;
+		}
+		
+		/**
+		 * Returns index of the shard link is currently assigned to.
+		 */
+		public int getShard() {
+			return shard.index;
+		}
+		
+		public long getBytesDecoded() {
+			return bytesDecoded;
+		}
+		
+		/**
+		 * Returns number of the packets the handler failed on
+		 * and of the chunks failed to decode.
+		 */
+		public long getErrors() {
+			return errors;
+		}
+		
+		/**
+		 * Returns the last exception thrown by the handler or
+		 * by the decoder, or null if there were no failures.
+		 */
+		public Exception getLastError() {
+			return lastError;
+		}
+		
+		/**
+		 * Queues range of the array for decoding, array range should
+		 * not be modified until it is decoded.
+		 */
+		public void submit(byte[] b, int off, int len) {
+			if (b == null)
+				throw new NullPointerException();
+			if (off < 0 || len < 0 || off + len > b.length)
+				throw new IndexOutOfBoundsException();
+			
+			submit(ByteBuffer.wrap(b, off, len));
+		}
+		
+		/**
+		 * Queues remaining bytes of the buffer for decoding, buffer
+		 * should not be accessed until it is decoded.
+		 */
+		public void submit(ByteBuffer buffer) {
+			if (buffer == null)
+				throw new NullPointerException();
+			if (closed)
+				throw new IllegalStateException("Link is removed");
+			
+			chunks.offer(buffer);
+			schedule();
+		}
+		
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				shard.runQueue.offer(this);
+		}
+		
+		/**
+		 * Decodes queued chunks on the shard thread.
+		 */
+		private void run(Shard current) {
+			long packetsReceived = decoder.getPacketsReceived();
+			long bytes = 0;
+			long failures = 0;
+			handlerErrors = 0;
+			ByteBuffer chunk;
+			for (int n = 0; n < MAX_CHUNKS_PER_RUN && (chunk = chunks.poll()) != null; ++n) {
+				if (closed)
+					continue;
+				bytes += chunk.remaining();
+				try {
+					decoder.decode(chunk, guardedHandler);
+				} catch (IOException e) {
+					failures++;
+					lastError = e;
+				} catch (RuntimeException e) {
+					failures++;
+					lastError = e;
+				}
+			}
+			failures += handlerErrors;
+			bytesDecoded += bytes;
+			errors += failures;
+			current.bytesDecoded += bytes;
+			current.packetsDecoded += decoder.getPacketsReceived() - packetsReceived;
+			current.errors += failures;
+			
+			scheduled.set(false);
+			// chunks submitted while the link was scheduled
+			if (!chunks.isEmpty() && !closed)
+				schedule();
+		}
+	}
+	
+	private static class Shard implements Runnable {
+		private final int index;
+		private final LinkedBlockingQueue<Link> runQueue = new LinkedBlockingQueue<Link>();
+		private final AtomicInteger links = new AtomicInteger();
+		private Thread thread;
+		private volatile boolean running = true;
+		
+		// written by the shard thread only
+		private volatile long bytesDecoded;
+		private volatile long packetsDecoded;
+		private volatile long busyNanos;
+		private volatile long errors;
+		
+		Shard(int index) {
+			this.index = index;
+		}
+		
+		public void run() {
+			while (running) {
+				Link link;
+				try {
+					link = runQueue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				long start = System.nanoTime();
+				link.run(this);
+				busyNanos += System.nanoTime() - start;
+			}
+		}
+	}
+	
+	public static class ShardLoad {
+		private int shard;
+		private int links;
+		private int queuedLinks;
+		private long bytesDecoded;
+		private long packetsDecoded;
+		private long busyNanos;
+		private long errors;
+		
+		public int getShard() {
+			return shard;
+		}
+		
+		public int getLinks() {
+			return links;
+		}
+		
+		/**
+		 * Returns number of the links waiting in the shard run queue.
+		 */
+		public int getQueuedLinks() {
+			return queuedLinks;
+		}
+		
+		public long getBytesDecoded() {
+			return bytesDecoded;
+		}
+		
+		public long getPacketsDecoded() {
+			return packetsDecoded;
+		}
+		
+		/**
+		 * Returns time spent by the shard thread decoding, difference
+		 * of the two snapshots divided by the time elapsed is the
+		 * shard utilization.
+		 */
+		public long getBusyNanos() {
+			return busyNanos;
+		}
+		
+		public long getErrors() {
+			return errors;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("ShardLoad {");
+			sb.append("shard: ").append(shard);
+			sb.append(", links: ").append(links);
+			sb.append(", queuedLinks: ").append(queuedLinks);
+			sb.append(", bytesDecoded: ").append(bytesDecoded);
+			sb.append(", packetsDecoded: ").append(packetsDecoded);
+			sb.append(", busyNanos: ").append(busyNanos);
+			sb.append(", errors: ").append(errors);
+			sb.append("}");
+			return sb.toString();
+		}
+	}
+}
@@ -6,4 +6,5 @@ import java.io.OutputStream;
 public interface MavlinkMessage {
 	int getMavlinkMessageType();
 	void writeTo(OutputStream out) throws IOException;
+	void writeTo(byte[] b, int off) throws IOException;
 }
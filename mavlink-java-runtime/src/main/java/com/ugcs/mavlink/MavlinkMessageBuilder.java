@@ -6,4 +6,9 @@ import java.io.InputStream;
 public interface MavlinkMessageBuilder {
 	MavlinkMessage build();
 	MavlinkMessageBuilder readFrom(InputStream in) throws IOException;
+	MavlinkMessageBuilder readFrom(byte[] b, int off);
+	/**
+	 * Resets all fields to the default values, so the builder can be reused.
+	 */
+	MavlinkMessageBuilder clear();
 }
@@ -0,0 +1,23 @@
+package com.ugcs.mavlink;
+
+/**
+ * Factory of the messages of a single type.
+ */
+public interface MavlinkMessageFactory {
+	int getMavlinkMessageType();
+	MavlinkMessageBuilder newMessageBuilder();
+	/**
+	 * Creates message with the default field values.
+	 */
+	MavlinkMessage newMessage();
+	/**
+	 * Reads message directly from the payload bytes, without the builder.
+	 */
+	MavlinkMessage readFrom(byte[] b, int off);
+	/**
+	 * Reads payload to the existing message of the factory type, overwriting
+	 * its fields. Intended for the recycled (pooled) message instances only:
+	 * messages are treated as immutable by all other code.
+	 */
+	void readInto(MavlinkMessage message, byte[] b, int off);
+}
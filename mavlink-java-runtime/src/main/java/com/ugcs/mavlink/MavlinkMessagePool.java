@@ -0,0 +1,122 @@
+package com.ugcs.mavlink;
+
+/**
+ * Pool of the recycled packets and messages for the pooled decoding
+ * (see {@link MavlinkDecoder#setMessagePool(MavlinkMessagePool)}).
+ * <p>
+ * Pooled packet and its payload are owned by the consumer until
+ * released with {@link #release(MavlinkPacket)}; after the release
+ * neither of them should be used, as their fields are overwritten
+ * by the next decoded packet. Pool is thread-safe, so packets can be
+ * released by the threads other than the decoding one.
+ */
+public class MavlinkMessagePool {
+	private static final int DEFAULT_CAPACITY = 64;
+	
+	private final ProtocolDescriptor protocol;
+	private final int capacity;
+	
+	// free messages by message type
+	private final Stack[] messages;
+	private final Stack packets;
+	
+	public MavlinkMessagePool(ProtocolDescriptor protocol) {
+		this(protocol, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param capacity max number of the free instances kept
+	 * for every message type
+	 */
+	public MavlinkMessagePool(ProtocolDescriptor protocol, int capacity) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity");
+		
+		this.protocol = protocol;
+		this.capacity = capacity;
+		this.packets = new Stack(capacity);
+		this.messages = new Stack[protocol.getMaxMessageType() + 1];
+		for (int i = 0; i < messages.length; ++i) {
+			if (protocol.isSupported(i))
+				messages[i] = new Stack(capacity);
+		}
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Returns free message instance of the type, field values
+	 * of the message are undefined.
+	 */
+	public MavlinkMessage acquireMessage(int messageType) {
+		MavlinkMessage message = (MavlinkMessage) getMessageStack(messageType).pop();
+		return message != null 
+				? message 
+				: protocol.getMessageFactory(messageType).newMessage();
+	}
+	
+	public void releaseMessage(MavlinkMessage message) {
+		if (message == null)
+			throw new IllegalArgumentException("message");
+		
+		getMessageStack(message.getMavlinkMessageType()).push(message);
+	}
+	
+	public MavlinkPacket acquirePacket() {
+		MavlinkPacket packet = (MavlinkPacket) packets.pop();
+		return packet != null ? packet : new MavlinkPacket();
+	}
+	
+	/**
+	 * Releases packet and its payload.
+	 */
+	public void release(MavlinkPacket packet) {
+		if (packet == null)
+			throw new IllegalArgumentException("packet");
+		
+		MavlinkMessage payload = packet.getPayload();
+		packet.clear();
+		if (payload != null)
+			releaseMessage(payload);
+		packets.push(packet);
+	}
+	
+	private Stack getMessageStack(int messageType) {
+		Stack stack = messageType >= 0 && messageType < messages.length
+				? messages[messageType]
+				: null;
+		if (stack == null)
+			throw new IllegalArgumentException("Unsupported message type");
+		return stack;
+	}
+	
+	/**
+	 * Bounded stack of the free instances,
+	 * instances released to the full stack are discarded.
+	 */
+	private static class Stack {
+		private final Object[] items;
+		private int size;
+		
+		Stack(int capacity) {
+			this.items = new Object[capacity];
+		}
+		
+		synchronized Object pop() {
+			if (size == 0)
+				return null;
+			Object item = items[--size];
+			items[size] = null;
+			return item;
+		}
+		
+		synchronized void push(Object item) {
+			if (size < items.length)
+				items[size++] = item;
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package com.ugcs.mavlink;
+
+/**
+ * Flyweight view over the wire bytes of a message payload. 
+ * View can be re-wrapped over the new payload data without allocations.
+ */
+public interface MavlinkMessageView {
+	int getMavlinkMessageType();
+	MavlinkMessageView wrap(byte[] buffer, int offset);
+}
@@ -2,12 +2,23 @@ package com.ugcs.mavlink;
 
 public class MavlinkPacket {
 	private int payloadLength;
+	private int incompatibilityFlags;
+	private int compatibilityFlags;
 	private int sequenceNumber;
 	private long systemId;
 	private int componentId;
 	private int messageType;
 	private MavlinkMessage payload;
 	
+	/* raw packet data (lazy payload mode) */
+	
+	private byte[] rawBytes;
+	private int rawPayloadOffset;
+	private int rawMessageLength;
+	private ProtocolDescriptor rawProtocol;
+	// zero-filled copy of the truncated payload
+	private byte[] paddedPayload;
+	
 	public MavlinkPacket() {
 	}
 	
@@ -19,6 +30,25 @@ public class MavlinkPacket {
 			messageType = payload.getMavlinkMessageType();
 	}
 	
+	/**
+	 * Resets packet fields for the reuse.
+	 */
+	void clear() {
+		payloadLength = 0;
+		incompatibilityFlags = 0;
+		compatibilityFlags = 0;
+		sequenceNumber = 0;
+		systemId = 0L;
+		componentId = 0;
+		messageType = 0;
+		payload = null;
+		rawBytes = null;
+		rawPayloadOffset = 0;
+		rawMessageLength = 0;
+		rawProtocol = null;
+		paddedPayload = null;
+	}
+	
 	public int getPayloadLength() {
 		return payloadLength;
 	}
@@ -27,6 +57,28 @@ public class MavlinkPacket {
 		this.payloadLength = payloadLength;
 	}
 	
+	/**
+	 * Returns MAVLink 2 incompatibility flags.
+	 */
+	public int getIncompatibilityFlags() {
+		return incompatibilityFlags;
+	}
+	
+	public void setIncompatibilityFlags(int incompatibilityFlags) {
+		this.incompatibilityFlags = incompatibilityFlags;
+	}
+	
+	/**
+	 * Returns MAVLink 2 compatibility flags.
+	 */
+	public int getCompatibilityFlags() {
+		return compatibilityFlags;
+	}
+	
+	public void setCompatibilityFlags(int compatibilityFlags) {
+		this.compatibilityFlags = compatibilityFlags;
+	}
+	
 	public int getSequenceNumber() {
 		return sequenceNumber;
 	}
@@ -60,17 +112,79 @@ public class MavlinkPacket {
 	}
 	
 	public MavlinkMessage getPayload() {
+		if (payload == null && rawProtocol != null) {
+			payload = decodeRawPayload();
+			rawProtocol = null;
+		}
 		return payload;
 	}
 	
 	public void setPayload(MavlinkMessage payload) {
 		this.payload = payload;
+		this.rawProtocol = null;
+	}
+	
+	/**
+	 * Returns bytes of the packet as it was received, including header
+	 * and checksum, or null if packet was not decoded in the lazy
+	 * payload mode. Array is not copied and should not be modified.
+	 */
+	public byte[] getRawBytes() {
+		return rawBytes;
+	}
+	
+	/**
+	 * Returns offset of the payload data within the raw packet bytes.
+	 */
+	public int getRawPayloadOffset() {
+		return rawPayloadOffset;
+	}
+	
+	/**
+	 * Returns bytes a message view may be wrapped over at the
+	 * {@link #getViewOffset()}, or null if packet was not decoded in the
+	 * lazy payload mode. These are the raw bytes, unless the MAVLink 2
+	 * payload is truncated: it is copied and zero-filled up to the
+	 * message length then. Array should not be modified.
+	 */
+	public byte[] getViewBytes() {
+		if (rawBytes == null || payloadLength >= rawMessageLength)
+			return rawBytes;
+		if (paddedPayload == null) {
+			paddedPayload = new byte[rawMessageLength];
+			System.arraycopy(rawBytes, rawPayloadOffset, paddedPayload, 0, payloadLength);
+		}
+		return paddedPayload;
+	}
+	
+	/**
+	 * Returns offset of the payload data within the view bytes,
+	 * the full message length is available at the offset.
+	 */
+	public int getViewOffset() {
+		return payloadLength >= rawMessageLength ? rawPayloadOffset : 0;
+	}
+	
+	void setRawBytes(byte[] rawBytes, int rawPayloadOffset, int rawMessageLength,
+			ProtocolDescriptor rawProtocol) {
+		this.rawBytes = rawBytes;
+		this.rawPayloadOffset = rawPayloadOffset;
+		this.rawMessageLength = rawMessageLength;
+		this.rawProtocol = rawProtocol;
+		this.paddedPayload = null;
+		this.payload = null;
+	}
+	
+	private MavlinkMessage decodeRawPayload() {
+		MavlinkMessageFactory factory = rawProtocol.getMessageFactory(messageType);
+		return factory.readFrom(getViewBytes(), getViewOffset());
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("<MavlinkPacket> [[");
+		MavlinkMessage payload = getPayload();
 		sb.append(payload != null ? payload.getClass().getSimpleName() : "UNKNOWN");
 		sb.append(", payload length: ");
 		sb.append(Integer.toString(payloadLength));
@@ -0,0 +1,79 @@
+package com.ugcs.mavlink;
+
+import java.util.BitSet;
+
+/**
+ * Header-level packet filter: packets are matched by the message type
+ * and system id before the payload is decoded.
+ * By default all packets are accepted.
+ */
+public class MavlinkPacketFilter {
+	public interface SystemIdPredicate {
+		boolean accept(long systemId);
+	}
+
+	// null accepts all message types
+	private BitSet messageTypes;
+	private SystemIdPredicate systemIdPredicate;
+
+	public MavlinkPacketFilter() {
+	}
+
+	/**
+	 * Creates filter that accepts only the specified message types.
+	 */
+	public MavlinkPacketFilter(int... messageTypes) {
+		setMessageTypes(messageTypes);
+	}
+
+	/**
+	 * Restricts accepted message types to the specified ones.
+	 */
+	public void setMessageTypes(int... messageTypes) {
+		if (messageTypes == null)
+			throw new IllegalArgumentException("messageTypes");
+
+		BitSet bits = new BitSet();
+		for (int messageType : messageTypes) {
+			if (messageType < 0)
+				throw new IllegalArgumentException("messageType");
+			bits.set(messageType);
+		}
+		this.messageTypes = bits;
+	}
+
+	public void addMessageType(int messageType) {
+		if (messageType < 0)
+			throw new IllegalArgumentException("messageType");
+
+		if (messageTypes == null)
+			messageTypes = new BitSet();
+		messageTypes.set(messageType);
+	}
+
+	/**
+	 * Accepts all message types.
+	 */
+	public void clearMessageTypes() {
+		messageTypes = null;
+	}
+
+	public SystemIdPredicate getSystemIdPredicate() {
+		return systemIdPredicate;
+	}
+
+	/**
+	 * Sets predicate for the system ids, null accepts all system ids.
+	 */
+	public void setSystemIdPredicate(SystemIdPredicate systemIdPredicate) {
+		this.systemIdPredicate = systemIdPredicate;
+	}
+
+	public boolean accept(long systemId, int messageType) {
+		if (messageTypes != null && (messageType < 0 || !messageTypes.get(messageType)))
+			return false;
+		if (systemIdPredicate != null && !systemIdPredicate.accept(systemId))
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,5 @@
+package com.ugcs.mavlink;
+
+public interface MavlinkPacketHandler {
+	void handle(MavlinkPacket packet);
+}
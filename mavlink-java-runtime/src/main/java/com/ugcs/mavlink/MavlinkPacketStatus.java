@@ -0,0 +1,18 @@
+package com.ugcs.mavlink;
+
+/**
+ * Result of the packet validation.
+ */
+public enum MavlinkPacketStatus {
+	VALID,
+	/** Buffer is too short for the packet header or the stated payload */
+	TRUNCATED,
+	/** Payload length doesn't match the length of the message type */
+	BAD_LENGTH,
+	/** Message type is not supported by the protocol */
+	UNKNOWN_TYPE,
+	/** Checksum mismatch */
+	BAD_CRC,
+	/** Packet has incompatibility flags not supported by the decoder (MAVLink 2) */
+	BAD_FLAGS
+}
@@ -0,0 +1,317 @@
+package com.ugcs.mavlink;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Two-stage decoder of a single stream. The reading thread only frames
+ * packets by the stx and header and copies the frames to a preallocated
+ * ring of fixed-size slots. Worker threads validate checksums and decode
+ * payloads of the frames in parallel, and decoded packets are passed
+ * to the handler in the stream order.
+ * <p>
+ * Handler is called by the worker threads, but never concurrently.
+ * When the ring is full, the reading thread waits for the workers.
+ * <p>
+ * As checksum is validated after the framing, bytes of the frame with
+ * a valid header but a checksum mismatch are not rescanned for the
+ * packets, unlike in {@link MavlinkDecoder}.
+ */
+public class MavlinkPipelinedDecoder {
+	private static final int DEFAULT_RING_CAPACITY = 1024;
+	// producer wait for the free ring slots
+	private static final long FULL_RING_PARK_NANOS = 10000L;
+	// packet handler of the framing stage, which passes no packets
+	private static final MavlinkPacketHandler NO_PACKETS = new MavlinkPacketHandler() {
+		public void handle(MavlinkPacket packet) {
+		}
+	};
+	
+	private final ProtocolDescriptor protocol;
+	private final MavlinkPacketHandler handler;
+	
+	/* stage one */
+	
+	private final MavlinkDecoder framer;
+	
+	/* ring */
+	
+	private final int slotLength;
+	private final int mask;
+	private final byte[] slots;
+	private final int[] frameLengths;
+	private final MavlinkPacket[] packets;
+	// sequence number + 1 of the frame decoded in the slot
+	private final AtomicLongArray decoded;
+	
+	// written by the reading thread only
+	private volatile long published;
+	// permit per published frame
+	private final Semaphore framesAvailable = new Semaphore(0);
+	private final AtomicLong claimed = new AtomicLong();
+	private final ReentrantLock deliveryLock = new ReentrantLock();
+	// written under the delivery lock only
+	private volatile long delivered;
+	
+	/* stage two */
+	
+	private final Worker[] workers;
+	private volatile boolean running;
+	
+	// written under the delivery lock only
+	private volatile long packetsDropped;
+	private volatile long errors;
+	
+	public MavlinkPipelinedDecoder(ProtocolDescriptor protocol, int workerCount, MavlinkPacketHandler handler) {
+		this(protocol, workerCount, DEFAULT_RING_CAPACITY, handler);
+	}
+	
+	/**
+	 * @param ringCapacity number of the ring slots, power of two
+	 */
+	public MavlinkPipelinedDecoder(ProtocolDescriptor protocol, int workerCount, int ringCapacity,
+			MavlinkPacketHandler handler) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (workerCount <= 0)
+			throw new IllegalArgumentException("workerCount");
+		if (ringCapacity <= 0 || (ringCapacity & (ringCapacity - 1)) != 0)
+			throw new IllegalArgumentException("ringCapacity");
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		this.protocol = protocol;
+		this.handler = handler;
+		this.framer = new MavlinkDecoder(protocol);
+		framer.setFrameHandler(new MavlinkFrameHandler() {
+			public void handleFrame(byte[] b, int off, int len) {
+				publish(b, off, len);
+			}
+		});
+		
+		this.slotLength = Mavlink.getMaxPacketLength(protocol);
+		this.mask = ringCapacity - 1;
+		this.slots = new byte[ringCapacity * slotLength];
+		this.frameLengths = new int[ringCapacity];
+		this.packets = new MavlinkPacket[ringCapacity];
+		this.decoded = new AtomicLongArray(ringCapacity);
+		
+		this.workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; ++i)
+			workers[i] = new Worker(new MavlinkDecoder(protocol));
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Returns stats of the framing stage: packets counted as received
+	 * there can still be dropped by the workers (see {@link #getPacketsDropped()}).
+	 */
+	public MavlinkDecoderStats getStats() {
+		return framer.getStats();
+	}
+	
+	/**
+	 * Sets header-level filter of the framing stage.
+	 */
+	public void setFilter(MavlinkPacketFilter filter) {
+		framer.setFilter(filter);
+	}
+	
+	/**
+	 * Returns number of the frames dropped by the workers
+	 * on the checksum mismatch or payload decoding failure.
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped;
+	}
+	
+	/**
+	 * Returns number of the packets the handler failed on.
+	 */
+	public long getErrors() {
+		return errors;
+	}
+	
+	/**
+	 * Returns number of the frames framed, but not delivered yet.
+	 */
+	public int getPendingFrames() {
+		return (int) (published - delivered);
+	}
+	
+	/* threads */
+	
+	public synchronized void start() {
+		if (running)
+			throw new IllegalStateException("Decoder is already started");
+		
+		running = true;
+		for (int i = 0; i < workers.length; ++i) {
+			Thread thread = new Thread(workers[i], "mavlink-pipelined-decoder-" + i);
+			thread.setDaemon(true);
+			workers[i].thread = thread;
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Stops worker threads, frames that are not decoded yet are discarded.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		for (Worker worker : workers) {
+			if (worker.thread != null)
+				worker.thread.interrupt();
+		}
+	}
+	
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Worker worker : workers) {
+			Thread thread = worker.thread;
+			if (thread == null)
+				continue;
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return false;
+			TimeUnit.NANOSECONDS.timedJoin(thread, remaining);
+			if (thread.isAlive())
+				return false;
+		}
+		return true;
+	}
+	
+	/* stage one, reading thread */
+	
+	public void decode(byte[] b) throws IOException {
+		if (b == null)
+			throw new NullPointerException();
+		
+		decode(b, 0, b.length);
+	}
+	
+	public void decode(byte[] b, int off, int len) throws IOException {
+		checkRunning();
+		framer.decode(b, off, len, NO_PACKETS);
+	}
+	
+	public void decode(ByteBuffer buffer) throws IOException {
+		checkRunning();
+		framer.decode(buffer, NO_PACKETS);
+	}
+	
+	/**
+	 * Performs a single read from the channel and frames the bytes read.
+	 *
+	 * @throws EOFException if the channel has reached end-of-stream
+	 */
+	public void decode(ReadableByteChannel channel) throws IOException {
+		checkRunning();
+		if (framer.decode(channel, NO_PACKETS) < 0)
+			throw new EOFException();
+	}
+	
+	private void checkRunning() {
+		if (!running)
+			throw new IllegalStateException("Decoder is not started");
+	}
+	
+	private void publish(byte[] b, int off, int len) {
+		long sequence = published;
+		// waiting for the free slot
+		while (sequence - delivered > mask) {
+			if (!running)
+				throw new IllegalStateException("Decoder is shut down");
+			LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+		}
+		int slot = (int) (sequence & mask);
+		System.arraycopy(b, off, slots, slot * slotLength, len);
+		frameLengths[slot] = len;
+		published = sequence + 1;
+		framesAvailable.release();
+	}
+	
+	/* stage two, workers */
+	
+	private class Worker implements Runnable {
+		// validates and builds packets of the worker thread
+		private final MavlinkDecoder decoder;
+		private Thread thread;
+		
+		Worker(MavlinkDecoder decoder) {
+			this.decoder = decoder;
+		}
+		
+		public void run() {
+			while (running) {
+				try {
+					framesAvailable.acquire();
+				} catch (InterruptedException e) {
+					break;
+				}
+				long sequence = claimed.getAndIncrement();
+				int slot = (int) (sequence & mask);
+				int off = slot * slotLength;
+				MavlinkPacket packet = null;
+				try {
+					if (decoder.validatePacket(slots, off, frameLengths[slot]) == MavlinkPacketStatus.VALID)
+						packet = decoder.buildPacket(slots, off);
+				} catch (RuntimeException e) {
+					packet = null;
+				}
+				packets[slot] = packet;
+				decoded.set(slot, sequence + 1);
+				deliver();
+			}
+		}
+	}
+	
+	/**
+	 * Passes decoded packets to the handler in the stream order,
+	 * starting from the oldest undelivered one.
+	 */
+	private void deliver() {
+		while (true) {
+			if (!deliveryLock.tryLock())
+				// delivering thread passes packets of this one too
+				return;
+			try {
+				while (true) {
+					long sequence = delivered;
+					int slot = (int) (sequence & mask);
+					if (decoded.get(slot) != sequence + 1)
+						break;
+					MavlinkPacket packet = packets[slot];
+					packets[slot] = null;
+					delivered = sequence + 1;
+					if (packet == null) {
+						packetsDropped++;
+						continue;
+					}
+					try {
+						handler.handle(packet);
+					} catch (RuntimeException e) {
+						errors++;
+					}
+				}
+			} finally {
+				deliveryLock.unlock();
+			}
+			// packet decoded while the lock was released
+			long sequence = delivered;
+			if (decoded.get((int) (sequence & mask)) != sequence + 1)
+				return;
+		}
+	}
+}
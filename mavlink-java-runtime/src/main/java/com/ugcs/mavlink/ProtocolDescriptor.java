@@ -8,8 +8,21 @@ public interface ProtocolDescriptor {
 	boolean isFieldsReordering();
 	boolean isLittleEndian();
 	boolean isExpandedSystemId();
+	/**
+	 * MAVLink 2 framing: header with incompatibility and compatibility
+	 * flags and 24-bit message id, truncation of the trailing zero
+	 * payload bytes, extension fields.
+	 */
+	boolean isMavlink2();
 
+	int getMaxMessageType();
+	boolean isSupported(int messageType);
 	int getMessageLength(int messageType);
 	int getMessageCrcExtraByte(int messageType);
 	MavlinkMessageBuilder newMessageBuilder(int messageType);
+	/**
+	 * Returns factory of the message type, or null 
+	 * if the message type is not supported.
+	 */
+	MavlinkMessageFactory getMessageFactory(int messageType);
 }
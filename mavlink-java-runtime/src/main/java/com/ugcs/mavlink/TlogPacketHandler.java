@@ -0,0 +1,12 @@
+package com.ugcs.mavlink;
+
+/**
+ * Receiver of the packets read from a telemetry log.
+ */
+public interface TlogPacketHandler {
+	/**
+	 * @param timestamp time the packet was logged at,
+	 * in microseconds since the epoch
+	 */
+	void handle(long timestamp, MavlinkPacket packet);
+}
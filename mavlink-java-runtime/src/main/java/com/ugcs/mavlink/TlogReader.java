@@ -0,0 +1,312 @@
+package com.ugcs.mavlink;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads telemetry log (tlog) files: every record is an 8-byte big-endian
+ * timestamp (microseconds since the epoch) followed by a MAVLink frame.
+ * <p>
+ * File is memory-mapped and is split into chunks that are scanned either
+ * sequentially or in parallel by the executor. Records are assigned to the
+ * chunk they start in. Parallel scanning of a chunk starts at the first
+ * record boundary: a timestamp followed by a valid frame and by the next
+ * record timestamp and stx (or the end of file). Corrupted bytes are
+ * skipped up to the next timestamp followed by a valid frame.
+ */
+public class TlogReader implements Closeable {
+	public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+	
+	private static final int TIMESTAMP_LENGTH = 8;
+	
+	private final ProtocolDescriptor protocol;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final int maxPacketLength;
+	// bytes mapped past the chunk end: the last record of
+	// the chunk and the stx of the record following it
+	private final int chunkTailLength;
+	
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+	private volatile long bytesSkipped;
+	
+	public TlogReader(ProtocolDescriptor protocol, File file) throws IOException {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (file == null)
+			throw new IllegalArgumentException("file");
+		
+		this.protocol = protocol;
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.fileLength = channel.size();
+		this.maxPacketLength = Mavlink.getMaxPacketLength(protocol);
+		this.chunkTailLength = 2 * TIMESTAMP_LENGTH + maxPacketLength + 1;
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	public long getFileLength() {
+		return fileLength;
+	}
+	
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * Sets length of the file chunks mapped and scanned as a whole.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE - chunkTailLength)
+			throw new IllegalArgumentException("chunkSize");
+		
+		this.chunkSize = chunkSize;
+	}
+	
+	public int getChunkCount() {
+		return (int) ((fileLength + chunkSize - 1) / chunkSize);
+	}
+	
+	/**
+	 * Returns number of bytes that are not a part of the valid
+	 * records read, as counted by the last completed read.
+	 */
+	public long getBytesSkipped() {
+		return bytesSkipped;
+	}
+	
+	public void close() throws IOException {
+		file.close();
+	}
+	
+	/**
+	 * Reads packets of the file in order on the calling thread.
+	 *
+	 * @return number of packets read
+	 */
+	public long read(TlogPacketHandler handler) throws IOException {
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		Scan scan = scan(0, fileLength, false, chunkSize, handler);
+		bytesSkipped = fileLength - scan.recordBytes;
+		return scan.packets;
+	}
+	
+	/**
+	 * Reads chunks of the file in parallel by the executor. Handler is
+	 * called concurrently by the chunk tasks, packets of a chunk are
+	 * passed in order. Records missed at the chunk boundaries (next to
+	 * the corrupted bytes) are read and passed once the chunks are done.
+	 *
+	 * @return number of packets read
+	 */
+	public long read(ExecutorService executor, final TlogPacketHandler handler)
+			throws IOException, InterruptedException {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		final int chunkSize = this.chunkSize;
+		List<Future<Scan>> futures = new ArrayList<Future<Scan>>(getChunkCount());
+		try {
+			for (long start = 0; start < fileLength; start += chunkSize) {
+				final long chunkStart = start;
+				final long chunkEnd = Math.min(fileLength, start + chunkSize);
+				futures.add(executor.submit(new Callable<Scan>() {
+					public Scan call() throws IOException {
+						return scan(chunkStart, chunkEnd, chunkStart != 0, chunkSize, handler);
+					}
+				}));
+			}
+			long packets = 0;
+			long recordBytes = 0;
+			// end of the last record read
+			long position = 0;
+			for (Future<Scan> future : futures) {
+				Scan scan = future.get();
+				if (position < scan.first) {
+					// chunk scanning started past the end of the previous chunk records
+					Scan gap = scan(position, scan.first, false, chunkSize, handler);
+					packets += gap.packets;
+					recordBytes += gap.recordBytes;
+					position = gap.end;
+				}
+				packets += scan.packets;
+				recordBytes += scan.recordBytes;
+				position = Math.max(position, scan.end);
+			}
+			bytesSkipped = fileLength - recordBytes;
+			return packets;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		} finally {
+			// no-op for the completed tasks
+			for (Future<Scan> future : futures)
+				future.cancel(false);
+		}
+	}
+	
+	/* scanning */
+	
+	/**
+	 * Reads records starting in the [from, to) range, the range
+	 * is mapped by pieces of the chunk size.
+	 *
+	 * @param resync true if scanning should start at the first
+	 * record boundary, otherwise a record is expected at the start
+	 */
+	private Scan scan(long from, long to, boolean resync, int chunkSize,
+			TlogPacketHandler handler) throws IOException {
+		Scan scan = new Scan();
+		scan.first = from;
+		long position = from;
+		while (position < to) {
+			int end = (int) Math.min(to - position, chunkSize);
+			int mappedLength = (int) Math.min((long) end + chunkTailLength, fileLength - position);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, mappedLength);
+			ChunkScanner scanner = new ChunkScanner(buffer, position + mappedLength == fileLength);
+			
+			int pos = 0;
+			if (resync && position == from) {
+				pos = scanner.resync(0, end, true);
+				scan.first = from + pos;
+			}
+			while (pos < end) {
+				int recordLength = scanner.readRecord(pos);
+				if (recordLength < 0) {
+					pos = scanner.resync(pos + 1, end, false);
+					continue;
+				}
+				handler.handle(buffer.getLong(pos), scanner.buildPacket());
+				scan.packets++;
+				scan.recordBytes += recordLength;
+				pos += recordLength;
+			}
+			// last record may end past the piece
+			position += pos;
+		}
+		scan.end = Math.max(position, from);
+		return scan;
+	}
+	
+	private static class Scan {
+		// start of the first record
+		long first;
+		// end of the last record, records starting before it are read
+		long end;
+		long packets;
+		long recordBytes;
+	}
+	
+	/**
+	 * Frames records of the mapped chunk, frames are copied to
+	 * the frame buffer for the validation and decoding.
+	 */
+	private class ChunkScanner {
+		private final ByteBuffer buffer;
+		// buffer view positioned for the bulk reads
+		private final ByteBuffer view;
+		private final MavlinkDecoder decoder = new MavlinkDecoder(protocol);
+		private final byte[] frame = new byte[maxPacketLength];
+		private final int stx = protocol.getMavlinkStx();
+		private final int headerLength = Mavlink.getHeaderLength(protocol);
+		// chunk is mapped up to the end of file
+		private final boolean fileEnd;
+		
+		ChunkScanner(ByteBuffer buffer, boolean fileEnd) {
+			this.buffer = buffer;
+			this.view = buffer.duplicate();
+			this.fileEnd = fileEnd;
+		}
+		
+		/**
+		 * Validates record at the position and copies its frame
+		 * to the frame buffer.
+		 *
+		 * @return record length, or -1 if there is no valid record
+		 */
+		int readRecord(int pos) {
+			int frameOffset = pos + TIMESTAMP_LENGTH;
+			if (frameOffset + headerLength > buffer.limit()
+					|| buffer.getLong(pos) < 0L
+					|| (buffer.get(frameOffset) & 0xff) != stx)
+				return -1;
+			// copying the frame only, truncated frame fails the validation
+			int packetLength = headerLength + (buffer.get(frameOffset + 1) & 0xff) + 2;
+			if (protocol.isMavlink2() && (buffer.get(frameOffset + 2) & Mavlink.INCOMPAT_FLAG_SIGNED) != 0)
+				packetLength += Mavlink.SIGNATURE_LENGTH;
+			int n = Math.min(packetLength, buffer.limit() - frameOffset);
+			view.position(frameOffset);
+			view.get(frame, 0, n);
+			if (decoder.validatePacket(frame, 0, n) != MavlinkPacketStatus.VALID)
+				return -1;
+			return TIMESTAMP_LENGTH + packetLength;
+		}
+		
+		/**
+		 * Checks that the valid record is followed by the
+		 * next record timestamp and stx, or by the end of file.
+		 */
+		boolean isBoundary(int pos, int recordLength) {
+			int next = pos + recordLength;
+			if (next == buffer.limit())
+				return fileEnd;
+			return next + TIMESTAMP_LENGTH < buffer.limit()
+					&& buffer.getLong(next) >= 0L
+					&& (buffer.get(next + TIMESTAMP_LENGTH) & 0xff) == stx;
+		}
+		
+		/**
+		 * Returns position of the first valid record in the
+		 * [from, end) range, or the end if there is none.
+		 *
+		 * @param boundary true if the record should be followed by the
+		 * next record, as the chunk may start inside a record frame
+		 */
+		int resync(int from, int end, boolean boundary) {
+			for (int pos = from; pos < end; ++pos) {
+				int frameOffset = pos + TIMESTAMP_LENGTH;
+				if (frameOffset >= buffer.limit())
+					break;
+				if ((buffer.get(frameOffset) & 0xff) != stx)
+					continue;
+				// frame is validated only at the stx positions
+				int recordLength = readRecord(pos);
+				if (recordLength >= 0 && (!boundary || isBoundary(pos, recordLength)))
+					return pos;
+			}
+			return end;
+		}
+		
+		/**
+		 * Decodes frame of the last record read.
+		 */
+		MavlinkPacket buildPacket() {
+			return decoder.buildPacket(frame, 0);
+		}
+	}
+}
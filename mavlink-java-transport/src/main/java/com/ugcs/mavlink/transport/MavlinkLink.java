@@ -0,0 +1,259 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ugcs.mavlink.MavlinkEncoder;
+import com.ugcs.mavlink.MavlinkPacket;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * Link of the transport. Packets sent to the link are queued and are
+ * encoded and written by the transport thread as soon as the socket
+ * accepts them. Queue size is limited by the number of bytes, packets
+ * that don't fit the queue are rejected.
+ */
+public abstract class MavlinkLink implements Closeable {
+	private static final int DEFAULT_MAX_PENDING_BYTES = 1 << 20;
+	
+	final MavlinkTransport transport;
+	final ProtocolDescriptor protocol;
+	final MavlinkLinkListener listener;
+	private final SelectableChannel channel;
+	
+	/* transport thread */
+	
+	final MavlinkEncoder encoder;
+	// read buffer is shared by the links of the transport
+	final ByteBuffer writeBuffer;
+	private boolean closeNotified;
+	
+	/* outbound queue */
+	
+	final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<Outbound>();
+	// max length of the queued packets
+	private final AtomicInteger pendingBytes = new AtomicInteger();
+	private volatile int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final AtomicLong packetsRejected = new AtomicLong();
+	private final AtomicLong packetsDropped = new AtomicLong();
+	
+	private volatile boolean closed;
+	
+	// selection key attachment
+	final SelectionHandler handler = new SelectionHandler() {
+		public void select(SelectionKey key) throws IOException {
+			MavlinkLink.this.select(key);
+		}
+		
+		public void fail(IOException cause) {
+			MavlinkLink.this.fail(cause);
+		}
+	};
+	
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			flushScheduled.set(false);
+			if (!channel.isOpen())
+				return;
+			try {
+				flush();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	};
+	
+	MavlinkLink(MavlinkTransport transport, ProtocolDescriptor protocol, MavlinkLinkListener listener,
+			SelectableChannel channel, int writeBufferLength) {
+		this.transport = transport;
+		this.protocol = protocol;
+		this.listener = listener;
+		this.channel = channel;
+		this.encoder = new MavlinkEncoder(protocol);
+		this.writeBuffer = ByteBuffer.allocateDirect(writeBufferLength);
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	public int getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+	
+	/**
+	 * Sets max number of bytes of the packets queued for sending.
+	 */
+	public void setMaxPendingBytes(int maxPendingBytes) {
+		if (maxPendingBytes <= 0)
+			throw new IllegalArgumentException("maxPendingBytes");
+		
+		this.maxPendingBytes = maxPendingBytes;
+	}
+	
+	public int getPendingBytes() {
+		return pendingBytes.get();
+	}
+	
+	/**
+	 * Returns number of the packets rejected as the queue was full.
+	 */
+	public long getPacketsRejected() {
+		return packetsRejected.get();
+	}
+	
+	/**
+	 * Returns number of the packets failed to encode or to send.
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped.get();
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Closes link asynchronously, packets that are not sent yet are discarded.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		
+		closed = true;
+		// links are closed by the transport on its shutdown
+		if (!transport.isOpen())
+			return;
+		if (transport.isTransportThread()) {
+			fail(null);
+			return;
+		}
+		transport.execute(new Runnable() {
+			public void run() {
+				fail(null);
+			}
+		});
+	}
+	
+	/* sending */
+	
+	/**
+	 * Queues packet for sending.
+	 *
+	 * @return false if the packet is rejected as the queue is full
+	 */
+	boolean enqueue(MavlinkPacket packet, SocketAddress remote) {
+		if (packet == null)
+			throw new IllegalArgumentException("packet");
+		if (closed)
+			throw new IllegalStateException("Link is closed");
+		
+		int length = encoder.getPacketLength(packet);
+		if (pendingBytes.addAndGet(length) > maxPendingBytes) {
+			pendingBytes.addAndGet(-length);
+			packetsRejected.incrementAndGet();
+			return false;
+		}
+		outbound.offer(new Outbound(packet, remote, length));
+		if (flushScheduled.compareAndSet(false, true))
+			transport.execute(flushTask);
+		return true;
+	}
+	
+	/**
+	 * Removes head packet of the queue.
+	 */
+	Outbound poll() {
+		Outbound packet = outbound.poll();
+		if (packet != null)
+			pendingBytes.addAndGet(-packet.length);
+		return packet;
+	}
+	
+	void packetDropped() {
+		packetsDropped.incrementAndGet();
+	}
+	
+	/**
+	 * Writes queued packets until the queue is empty
+	 * or the socket doesn't accept more bytes.
+	 */
+	abstract void flush() throws IOException;
+	
+	/**
+	 * Enables or disables write readiness selection,
+	 * which is required while the socket is full.
+	 */
+	void setWriteInterest(SelectionKey key, boolean enabled) {
+		int ops = key.interestOps();
+		int newOps = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+		if (newOps != ops)
+			key.interestOps(newOps);
+	}
+	
+	SelectionKey getSelectionKey() {
+		return channel.keyFor(transport.getSelector());
+	}
+	
+	/* events */
+	
+	/**
+	 * Handles ready operations of the link channel.
+	 */
+	abstract void select(SelectionKey key) throws IOException;
+	
+	void opened() {
+		try {
+			listener.linkOpened(this);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+			return;
+		}
+		// packets queued before the link was opened
+		if (!outbound.isEmpty())
+			flushTask.run();
+	}
+	
+	/**
+	 * Closes link channel and notifies the listener.
+	 */
+	void fail(IOException cause) {
+		closed = true;
+		SelectionKey key = getSelectionKey();
+		if (key != null)
+			key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		outbound.clear();
+		pendingBytes.set(0);
+		if (!closeNotified) {
+			closeNotified = true;
+			listener.linkClosed(this, cause);
+		}
+	}
+	
+	static class Outbound {
+		final MavlinkPacket packet;
+		// null for the connected links
+		final SocketAddress remote;
+		final int length;
+		
+		Outbound(MavlinkPacket packet, SocketAddress remote, int length) {
+			this.packet = packet;
+			this.remote = remote;
+			this.length = length;
+		}
+	}
+}
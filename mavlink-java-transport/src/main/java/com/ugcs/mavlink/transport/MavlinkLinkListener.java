@@ -0,0 +1,29 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+import com.ugcs.mavlink.MavlinkPacket;
+
+/**
+ * Receiver of the link events, all methods are called
+ * by the transport thread.
+ */
+public interface MavlinkLinkListener {
+	/**
+	 * Called when the link is ready for sending and receiving:
+	 * UDP socket is bound or TCP connection is established.
+	 */
+	void linkOpened(MavlinkLink link);
+	
+	/**
+	 * @param remote address the packet is received from
+	 */
+	void packetReceived(MavlinkLink link, SocketAddress remote, MavlinkPacket packet);
+	
+	/**
+	 * @param cause failure the link is closed on, or null
+	 * if the link is closed by the application or by the peer
+	 */
+	void linkClosed(MavlinkLink link, IOException cause);
+}
@@ -0,0 +1,249 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ugcs.mavlink.Mavlink;
+import com.ugcs.mavlink.MavlinkDecoder;
+import com.ugcs.mavlink.MavlinkEncoder;
+import com.ugcs.mavlink.MavlinkPacket;
+import com.ugcs.mavlink.MavlinkPacketHandler;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * Link over the blocking streams, e.g. of a socket. Read and write loops
+ * of the link block on the streams and should be run by the executor of
+ * the virtual threads, see {@link MavlinkThreads#newLinkExecutor(String)}.
+ * Read and write buffers of the link fit a single frame.
+ * <p>
+ * Received packets are passed to the handler by the read loop. Sending
+ * blocks while the outbound queue is full.
+ */
+public class MavlinkStreamLink implements Closeable {
+	private static final int DEFAULT_QUEUE_CAPACITY = 16;
+	
+	private final ProtocolDescriptor protocol;
+	private final InputStream in;
+	private final OutputStream out;
+	private final MavlinkPacketHandler handler;
+	private final MavlinkDecoder decoder;
+	private final BlockingQueue<MavlinkPacket> outbound;
+	
+	private final AtomicBoolean started = new AtomicBoolean();
+	// read and write loops
+	private final CountDownLatch loops = new CountDownLatch(2);
+	private final AtomicLong packetsDropped = new AtomicLong();
+	private volatile boolean closed;
+	private volatile IOException failure;
+	// write loop thread blocked on the queue, guarded by this
+	private Thread writer;
+	
+	public MavlinkStreamLink(ProtocolDescriptor protocol, Socket socket,
+			MavlinkPacketHandler handler) throws IOException {
+		this(protocol, socket.getInputStream(), socket.getOutputStream(), handler);
+	}
+	
+	/**
+	 * Link is closed by closing both of the streams.
+	 */
+	public MavlinkStreamLink(ProtocolDescriptor protocol, InputStream in, OutputStream out,
+			MavlinkPacketHandler handler) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (in == null)
+			throw new IllegalArgumentException("in");
+		if (out == null)
+			throw new IllegalArgumentException("out");
+		if (handler == null)
+			throw new IllegalArgumentException("handler");
+		
+		this.protocol = protocol;
+		this.in = in;
+		this.out = out;
+		this.handler = handler;
+		this.decoder = new MavlinkDecoder(protocol);
+		this.outbound = new ArrayBlockingQueue<MavlinkPacket>(DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	public ProtocolDescriptor getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Returns decoder of the link. Decoder is used by the read
+	 * loop and should be configured before the link is started.
+	 */
+	public MavlinkDecoder getDecoder() {
+		return decoder;
+	}
+	
+	/**
+	 * Returns number of the packets failed to encode.
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped.get();
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Returns failure the link is closed on, or null if the link is
+	 * open or is closed by the application or by the peer.
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+	
+	/**
+	 * Starts read and write loops on the executor.
+	 */
+	public void start(Executor executor) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		if (!started.compareAndSet(false, true))
+			throw new IllegalStateException("Link is already started");
+		
+		executor.execute(new Runnable() {
+			public void run() {
+				readLoop();
+			}
+		});
+		executor.execute(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		});
+	}
+	
+	/**
+	 * Queues packet for sending, blocks while the queue is full.
+	 */
+	public void send(MavlinkPacket packet) throws IOException {
+		if (packet == null)
+			throw new IllegalArgumentException("packet");
+		if (closed)
+			throw new IOException("Link is closed");
+		
+		try {
+			outbound.put(packet);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (closed) {
+			// link is closed while waiting, releasing other senders
+			outbound.clear();
+			throw new IOException("Link is closed");
+		}
+	}
+	
+	/**
+	 * Closes the streams, packets that are not sent yet are discarded.
+	 */
+	public void close() {
+		fail(null);
+	}
+	
+	/**
+	 * Waits for the read and write loops to complete after the link is closed.
+	 *
+	 * @return false if the timeout elapsed
+	 */
+	public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!started.get())
+			return true;
+		return loops.await(timeout, unit);
+	}
+	
+	/* loops */
+	
+	private void readLoop() {
+		try {
+			byte[] buffer = new byte[Mavlink.getMaxPacketLength(protocol)];
+			int n;
+			while (!closed && (n = in.read(buffer)) >= 0)
+				decoder.decode(buffer, 0, n, handler);
+			// closed by the peer
+			fail(null);
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			// handler failure
+			fail(new IOException(e));
+		} finally {
+			loops.countDown();
+		}
+	}
+	
+	private void writeLoop() {
+		synchronized (this) {
+			writer = Thread.currentThread();
+		}
+		try {
+			MavlinkEncoder encoder = new MavlinkEncoder(protocol);
+			byte[] buffer = new byte[Mavlink.getMaxPacketLength(protocol)];
+			while (!closed) {
+				MavlinkPacket packet = outbound.take();
+				int n;
+				try {
+					n = encoder.encodeTo(packet, buffer, 0);
+				} catch (IOException e) {
+					packetsDropped.incrementAndGet();
+					continue;
+				} catch (RuntimeException e) {
+					packetsDropped.incrementAndGet();
+					continue;
+				}
+				out.write(buffer, 0, n);
+				if (outbound.isEmpty())
+					out.flush();
+			}
+		} catch (InterruptedException e) {
+			// interrupted on close
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			// pooled thread is not interrupted once the loop is done
+			synchronized (this) {
+				writer = null;
+			}
+			Thread.interrupted();
+			loops.countDown();
+		}
+	}
+	
+	private void fail(IOException cause) {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			failure = cause;
+			if (writer != null && writer != Thread.currentThread())
+				writer.interrupt();
+		}
+		outbound.clear();
+		try {
+			in.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
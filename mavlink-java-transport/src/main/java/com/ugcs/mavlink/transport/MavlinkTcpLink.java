@@ -0,0 +1,131 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.ugcs.mavlink.Mavlink;
+import com.ugcs.mavlink.MavlinkDecoder;
+import com.ugcs.mavlink.MavlinkPacket;
+import com.ugcs.mavlink.MavlinkPacketHandler;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * TCP link, either connected by the transport or accepted by the server.
+ */
+public class MavlinkTcpLink extends MavlinkLink {
+	// max length frames written at once
+	private static final int WRITE_BUFFER_FRAMES = 8;
+	
+	private final SocketChannel channel;
+	private final MavlinkDecoder decoder;
+	
+	private final MavlinkPacketHandler packetHandler = new MavlinkPacketHandler() {
+		public void handle(MavlinkPacket packet) {
+			listener.packetReceived(MavlinkTcpLink.this, getRemoteAddress(), packet);
+		}
+	};
+	
+	MavlinkTcpLink(MavlinkTransport transport, ProtocolDescriptor protocol, MavlinkLinkListener listener,
+			SocketChannel channel) {
+		super(transport, protocol, listener, channel, WRITE_BUFFER_FRAMES * Mavlink.getMaxPacketLength(protocol));
+		this.channel = channel;
+		this.decoder = new MavlinkDecoder(protocol);
+	}
+	
+	/**
+	 * Returns decoder of the link. Decoder is used by the transport
+	 * thread and should be configured before the link is opened.
+	 */
+	public MavlinkDecoder getDecoder() {
+		return decoder;
+	}
+	
+	public SocketAddress getLocalAddress() {
+		return channel.socket().getLocalSocketAddress();
+	}
+	
+	public SocketAddress getRemoteAddress() {
+		return channel.socket().getRemoteSocketAddress();
+	}
+	
+	/**
+	 * Queues packet for sending. Packets sent before the
+	 * connection is established are sent once it is.
+	 *
+	 * @return false if the packet is rejected as the queue is full
+	 */
+	public boolean send(MavlinkPacket packet) {
+		return enqueue(packet, null);
+	}
+	
+	@Override
+	void select(SelectionKey key) throws IOException {
+		if (key.isConnectable()) {
+			if (!channel.finishConnect())
+				return;
+			key.interestOps(SelectionKey.OP_READ);
+			opened();
+			return;
+		}
+		if (key.isReadable())
+			read();
+		if (key.isValid() && key.isWritable())
+			flush();
+	}
+	
+	private void read() throws IOException {
+		ByteBuffer readBuffer = transport.getReadBuffer();
+		readBuffer.clear();
+		int n = channel.read(readBuffer);
+		if (n < 0) {
+			// closed by the peer
+			fail(null);
+			return;
+		}
+		readBuffer.flip();
+		decoder.decode(readBuffer, packetHandler);
+	}
+	
+	@Override
+	void flush() throws IOException {
+		SelectionKey key = getSelectionKey();
+		if (key == null || !channel.isConnected())
+			return;
+		
+		while (true) {
+			// write buffer is in the fill mode between the flushes
+			Outbound packet;
+			while ((packet = outbound.peek()) != null && writeBuffer.remaining() >= packet.length) {
+				poll();
+				// partially encoded frame is discarded
+				int mark = writeBuffer.position();
+				try {
+					encoder.encodeTo(packet.packet, writeBuffer);
+				} catch (IOException e) {
+					// packet fails to encode, the channel is fine
+					writeBuffer.position(mark);
+					packetDropped();
+				} catch (RuntimeException e) {
+					writeBuffer.position(mark);
+					packetDropped();
+				}
+			}
+			writeBuffer.flip();
+			channel.write(writeBuffer);
+			boolean written = !writeBuffer.hasRemaining();
+			writeBuffer.compact();
+			if (!written) {
+				// socket buffer is full, the rest is written when writable
+				setWriteInterest(key, true);
+				return;
+			}
+			if (outbound.isEmpty()) {
+				setWriteInterest(key, false);
+				return;
+			}
+		}
+	}
+}
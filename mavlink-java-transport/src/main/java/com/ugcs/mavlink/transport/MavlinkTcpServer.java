@@ -0,0 +1,83 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * Accepts TCP links, accepted links share the listener of the server.
+ */
+public class MavlinkTcpServer implements Closeable {
+	private final MavlinkTransport transport;
+	private final ProtocolDescriptor protocol;
+	private final MavlinkLinkListener listener;
+	private final ServerSocketChannel channel;
+	
+	// selection key attachment
+	final SelectionHandler handler = new SelectionHandler() {
+		public void select(SelectionKey key) throws IOException {
+			accept();
+		}
+		
+		public void fail(IOException cause) {
+			closeChannel();
+		}
+	};
+	
+	MavlinkTcpServer(MavlinkTransport transport, ProtocolDescriptor protocol, MavlinkLinkListener listener,
+			ServerSocketChannel channel) {
+		this.transport = transport;
+		this.protocol = protocol;
+		this.listener = listener;
+		this.channel = channel;
+	}
+	
+	public SocketAddress getLocalAddress() {
+		return channel.socket().getLocalSocketAddress();
+	}
+	
+	/**
+	 * Stops accepting links, accepted links stay open.
+	 */
+	public void close() {
+		transport.execute(new Runnable() {
+			public void run() {
+				closeChannel();
+			}
+		});
+	}
+	
+	private void accept() throws IOException {
+		SocketChannel accepted;
+		while ((accepted = channel.accept()) != null) {
+			MavlinkTcpLink link;
+			try {
+				accepted.configureBlocking(false);
+				accepted.socket().setTcpNoDelay(true);
+				link = new MavlinkTcpLink(transport, protocol, listener, accepted);
+				accepted.register(transport.getSelector(), SelectionKey.OP_READ, link.handler);
+			} catch (IOException e) {
+				// failure of the accepted connection only
+				accepted.close();
+				continue;
+			}
+			link.opened();
+		}
+	}
+	
+	private void closeChannel() {
+		SelectionKey key = channel.keyFor(transport.getSelector());
+		if (key != null)
+			key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.ugcs.mavlink.transport;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors of the blocking link loops. Virtual threads are used when
+ * the JVM provides them (Java 21+), they are looked up by reflection
+ * as the library is compiled for the older JVMs.
+ */
+public final class MavlinkThreads {
+	// stack size hint of the fallback threads, link loops don't go deep
+	private static final long FALLBACK_STACK_SIZE = 128 * 1024;
+	private static final long FALLBACK_KEEP_ALIVE_SECONDS = 60;
+	
+	private static final boolean VIRTUAL_THREADS = newVirtualThreadFactory("probe") != null;
+	
+	private MavlinkThreads() {
+	}
+	
+	public static boolean isVirtualThreadsAvailable() {
+		return VIRTUAL_THREADS;
+	}
+	
+	/**
+	 * Returns executor starting a new virtual thread for every task,
+	 * or a cached pool of the daemon platform threads with reduced
+	 * stack size if virtual threads are not available.
+	 */
+	public static ExecutorService newLinkExecutor(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		
+		if (VIRTUAL_THREADS) {
+			ExecutorService executor = newThreadPerTaskExecutor(newVirtualThreadFactory(name + "-"));
+			if (executor != null)
+				return executor;
+		}
+		return newFallbackExecutor(name + "-");
+	}
+	
+	/**
+	 * Returns Thread.ofVirtual().name(prefix, 0).factory(),
+	 * or null if virtual threads are not available.
+	 */
+	private static ThreadFactory newVirtualThreadFactory(String prefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			// not available or a preview feature that is not enabled
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns Executors.newThreadPerTaskExecutor(factory), or null
+	 * if the method is not available.
+	 */
+	private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+		if (factory == null)
+			return null;
+		try {
+			Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) method.invoke(null, factory);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private static ExecutorService newFallbackExecutor(final String prefix) {
+		// link loops block for the link lifetime, so the pool is not bounded
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+				FALLBACK_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger index = new AtomicInteger();
+					
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(null, task, prefix + index.getAndIncrement(), FALLBACK_STACK_SIZE);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+}
@@ -0,0 +1,319 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * Selector-based transport of the MAVLink links: all links of the
+ * transport are served by a single thread, which reads, decodes, encodes
+ * and writes packets and calls the link listeners.
+ * <p>
+ * Links can be opened and used for sending from any thread.
+ */
+public class MavlinkTransport implements Closeable {
+	// fits the max UDP datagram
+	private static final int READ_BUFFER_LENGTH = 65536;
+	
+	private final Selector selector;
+	private final Thread thread;
+	// actions to be executed by the transport thread
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile boolean open = true;
+	// links read into the single buffer, as reads are done by the transport thread
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_LENGTH);
+	
+	public MavlinkTransport() throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "mavlink-transport");
+		thread.setDaemon(true);
+	}
+	
+	public synchronized void start() {
+		if (!open)
+			throw new IllegalStateException("Transport is closed");
+		if (thread.getState() != Thread.State.NEW)
+			throw new IllegalStateException("Transport is already started");
+		
+		thread.start();
+	}
+	
+	/**
+	 * Closes all the links and stops the transport thread.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			open = false;
+			if (thread.getState() == Thread.State.NEW) {
+				// links opened before the start are not registered
+				discardTasks();
+				selector.close();
+				return;
+			}
+		}
+		selector.wakeup();
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	public boolean isOpen() {
+		return open;
+	}
+	
+	/* links */
+	
+	/**
+	 * Opens UDP link bound to the local address. Packets received from
+	 * every remote address are decoded separately.
+	 */
+	public MavlinkUdpLink openUdp(ProtocolDescriptor protocol, SocketAddress local,
+			MavlinkLinkListener listener) throws IOException {
+		checkArguments(protocol, local, listener);
+		
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.socket().bind(local);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		final MavlinkUdpLink link = new MavlinkUdpLink(this, protocol, listener, channel);
+		register(channel, SelectionKey.OP_READ, link.handler, new Runnable() {
+			public void run() {
+				link.opened();
+			}
+		});
+		return link;
+	}
+	
+	/**
+	 * Opens TCP connection to the remote address, connection
+	 * is established asynchronously.
+	 */
+	public MavlinkTcpLink connectTcp(ProtocolDescriptor protocol, SocketAddress remote,
+			MavlinkLinkListener listener) throws IOException {
+		checkArguments(protocol, remote, listener);
+		
+		SocketChannel channel = SocketChannel.open();
+		final MavlinkTcpLink link;
+		final boolean connected;
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			connected = channel.connect(remote);
+			link = new MavlinkTcpLink(this, protocol, listener, channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		register(channel, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, link.handler, new Runnable() {
+			public void run() {
+				if (connected)
+					link.opened();
+			}
+		});
+		return link;
+	}
+	
+	/**
+	 * Accepts TCP connections on the local address, listener
+	 * is notified on the accepted links.
+	 */
+	public MavlinkTcpServer listenTcp(ProtocolDescriptor protocol, SocketAddress local,
+			MavlinkLinkListener listener) throws IOException {
+		checkArguments(protocol, local, listener);
+		
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.socket().bind(local);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		MavlinkTcpServer server = new MavlinkTcpServer(this, protocol, listener, channel);
+		register(channel, SelectionKey.OP_ACCEPT, server.handler, null);
+		return server;
+	}
+	
+	private static void checkArguments(ProtocolDescriptor protocol, SocketAddress address,
+			MavlinkLinkListener listener) {
+		if (protocol == null)
+			throw new IllegalArgumentException("protocol");
+		if (address == null)
+			throw new IllegalArgumentException("address");
+		if (listener == null)
+			throw new IllegalArgumentException("listener");
+	}
+	
+	/* transport thread */
+	
+	/**
+	 * Registers channel with the selector on the transport thread,
+	 * the callback is executed on the successful registration.
+	 * Channel is closed if the transport is closed.
+	 */
+	void register(SelectableChannel channel, int ops, SelectionHandler handler, Runnable callback) {
+		try {
+			execute(new Registration(channel, ops, handler, callback));
+		} catch (IllegalStateException e) {
+			try {
+				channel.close();
+			} catch (IOException ce) {
+				// nothing to do
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Executes action on the transport thread.
+	 */
+	void execute(Runnable task) {
+		if (!open)
+			throw new IllegalStateException("Transport is closed");
+		
+		tasks.offer(task);
+		// transport is closed concurrently, task is either
+		// removed here or is discarded by the transport thread
+		if (!open && tasks.remove(task))
+			throw new IllegalStateException("Transport is closed");
+		selector.wakeup();
+	}
+	
+	Selector getSelector() {
+		return selector;
+	}
+	
+	/**
+	 * Returns read buffer shared by the links, data read should
+	 * be consumed before the transport thread reads again.
+	 */
+	ByteBuffer getReadBuffer() {
+		return readBuffer;
+	}
+	
+	boolean isTransportThread() {
+		return Thread.currentThread() == thread;
+	}
+	
+	private void loop() {
+		try {
+			while (open) {
+				selector.select();
+				runTasks();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					SelectionHandler handler = (SelectionHandler) key.attachment();
+					if (!key.isValid())
+						continue;
+					try {
+						handler.select(key);
+					} catch (IOException e) {
+						fail(handler, e);
+					} catch (RuntimeException e) {
+						// listener failure
+						fail(handler, new IOException(e));
+					}
+				}
+			}
+		} catch (IOException e) {
+			// selector failure, closing the links
+		} finally {
+			open = false;
+			for (SelectionKey key : selector.keys())
+				fail((SelectionHandler) key.attachment(), null);
+			discardTasks();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+	
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// listener failure, running other tasks
+				if (task instanceof Registration)
+					fail(((Registration) task).handler, new IOException(e));
+			}
+		}
+	}
+	
+	/**
+	 * Closes channels that are not registered yet,
+	 * other pending tasks are dropped.
+	 */
+	private void discardTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			if (task instanceof Registration)
+				fail(((Registration) task).handler, null);
+		}
+	}
+	
+	/**
+	 * Fails the handler, listener exceptions don't stop the loop.
+	 */
+	private static void fail(SelectionHandler handler, IOException cause) {
+		try {
+			handler.fail(cause);
+		} catch (RuntimeException e) {
+			// listener failure, closing other links
+		}
+	}
+	
+	private class Registration implements Runnable {
+		final SelectableChannel channel;
+		final int ops;
+		final SelectionHandler handler;
+		final Runnable callback;
+		
+		Registration(SelectableChannel channel, int ops, SelectionHandler handler, Runnable callback) {
+			this.channel = channel;
+			this.ops = ops;
+			this.handler = handler;
+			this.callback = callback;
+		}
+		
+		public void run() {
+			try {
+				channel.register(selector, ops, handler);
+			} catch (ClosedChannelException e) {
+				handler.fail(e);
+				return;
+			}
+			if (callback != null)
+				callback.run();
+		}
+	}
+}
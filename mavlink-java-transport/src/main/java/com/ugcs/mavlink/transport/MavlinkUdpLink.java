@@ -0,0 +1,171 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ugcs.mavlink.Mavlink;
+import com.ugcs.mavlink.MavlinkDecoder;
+import com.ugcs.mavlink.MavlinkPacket;
+import com.ugcs.mavlink.MavlinkPacketHandler;
+import com.ugcs.mavlink.ProtocolDescriptor;
+
+/**
+ * UDP link: every remote address has its own decoder, so the sequences
+ * of the different senders are not mixed. Packets are sent either to the
+ * specified address or to the default remote address of the link.
+ */
+public class MavlinkUdpLink extends MavlinkLink {
+	// max number of the remote addresses decoded separately,
+	// decoder of the least recently active address is discarded
+	private static final int MAX_REMOTES = 256;
+	// datagrams received per selection, so the other links are not starved
+	private static final int MAX_RECEIVES_PER_SELECT = 64;
+	// datagrams sent per flush, the rest is sent on the next selections
+	private static final int MAX_SENDS_PER_FLUSH = 64;
+	
+	private final DatagramChannel channel;
+	private volatile SocketAddress defaultRemote;
+	
+	/* transport thread */
+	
+	private final Map<SocketAddress, MavlinkDecoder> decoders =
+			new LinkedHashMap<SocketAddress, MavlinkDecoder>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<SocketAddress, MavlinkDecoder> eldest) {
+			return size() > MAX_REMOTES;
+		}
+	};
+	// sender of the datagram being decoded
+	private SocketAddress remote;
+	private final MavlinkPacketHandler packetHandler = new MavlinkPacketHandler() {
+		public void handle(MavlinkPacket packet) {
+			listener.packetReceived(MavlinkUdpLink.this, remote, packet);
+		}
+	};
+	
+	MavlinkUdpLink(MavlinkTransport transport, ProtocolDescriptor protocol, MavlinkLinkListener listener,
+			DatagramChannel channel) {
+		// datagrams are encoded one at a time
+		super(transport, protocol, listener, channel, Mavlink.getMaxPacketLength(protocol));
+		this.channel = channel;
+	}
+	
+	public SocketAddress getLocalAddress() {
+		return channel.socket().getLocalSocketAddress();
+	}
+	
+	public SocketAddress getDefaultRemote() {
+		return defaultRemote;
+	}
+	
+	/**
+	 * Sets address the packets are sent to by {@link #send(MavlinkPacket)}.
+	 */
+	public void setDefaultRemote(SocketAddress defaultRemote) {
+		this.defaultRemote = defaultRemote;
+	}
+	
+	/**
+	 * Queues packet for sending to the default remote address.
+	 *
+	 * @return false if the packet is rejected as the queue is full
+	 */
+	public boolean send(MavlinkPacket packet) {
+		SocketAddress remote = defaultRemote;
+		if (remote == null)
+			throw new IllegalStateException("Default remote address is not set");
+		
+		return enqueue(packet, remote);
+	}
+	
+	/**
+	 * Queues packet for sending to the remote address.
+	 *
+	 * @return false if the packet is rejected as the queue is full
+	 */
+	public boolean send(MavlinkPacket packet, SocketAddress remote) {
+		if (remote == null)
+			throw new IllegalArgumentException("remote");
+		
+		return enqueue(packet, remote);
+	}
+	
+	@Override
+	void select(SelectionKey key) throws IOException {
+		if (key.isReadable())
+			receive();
+		if (key.isValid() && key.isWritable())
+			flush();
+	}
+	
+	private void receive() throws IOException {
+		ByteBuffer readBuffer = transport.getReadBuffer();
+		for (int n = 0; n < MAX_RECEIVES_PER_SELECT; ++n) {
+			readBuffer.clear();
+			remote = channel.receive(readBuffer);
+			if (remote == null)
+				break;
+			readBuffer.flip();
+			MavlinkDecoder decoder = decoders.get(remote);
+			if (decoder == null) {
+				decoder = new MavlinkDecoder(protocol);
+				decoders.put(remote, decoder);
+			}
+			decoder.decode(readBuffer, packetHandler);
+		}
+		remote = null;
+	}
+	
+	@Override
+	void flush() throws IOException {
+		SelectionKey key = getSelectionKey();
+		if (key == null)
+			return;
+		
+		Outbound packet;
+		int sent = 0;
+		while ((packet = outbound.peek()) != null) {
+			if (sent++ == MAX_SENDS_PER_FLUSH) {
+				// queue is not empty, flush continues when writable
+				setWriteInterest(key, true);
+				return;
+			}
+			writeBuffer.clear();
+			try {
+				encoder.encodeTo(packet.packet, writeBuffer);
+			} catch (IOException e) {
+				// packet fails to encode, the channel is fine
+				poll();
+				packetDropped();
+				continue;
+			} catch (RuntimeException e) {
+				poll();
+				packetDropped();
+				continue;
+			}
+			writeBuffer.flip();
+			try {
+				if (channel.send(writeBuffer, packet.remote) == 0) {
+					// socket buffer is full, datagram is sent again when writable
+					setWriteInterest(key, true);
+					return;
+				}
+			} catch (ClosedChannelException e) {
+				throw e;
+			} catch (IOException e) {
+				// unreachable address doesn't affect the other ones
+				packetDropped();
+			}
+			poll();
+		}
+		setWriteInterest(key, false);
+	}
+}
@@ -0,0 +1,20 @@
+package com.ugcs.mavlink.transport;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Attachment of the selection keys registered by the transport.
+ */
+interface SelectionHandler {
+	/**
+	 * Handles ready operations of the key.
+	 */
+	void select(SelectionKey key) throws IOException;
+	
+	/**
+	 * Closes the channel on the handling failure or on the
+	 * transport shutdown (cause is null).
+	 */
+	void fail(IOException cause);
+}